@@ -0,0 +1,98 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kleenstheorem;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This class represents the benchmarks of the conversion stages. Each stage
+ * starts from the output of the stage before it, made once in the setup, so
+ * a benchmark measures its own stage only.
+ *
+ * @author ThienDinh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionBenchmark {
+
+    // Family of the pattern, see Corpus.
+    @Param({Corpus.KEYWORDS, Corpus.SUFFIX, Corpus.NESTED})
+    public String family;
+
+    // Size of the pattern.
+    @Param({"1", "2", "4"})
+    public int size;
+
+    // Outputs of the stages.
+    private String pattern;
+    private RegularExpression expression;
+    private LambdaNFA lambdaNFA;
+    private NFA nfa;
+    private DFA dfa;
+    private DFA minDFA;
+    private RegNFA regNFA;
+
+    @Setup
+    public void setUp() {
+        pattern = Corpus.pattern(family, size);
+        expression = new RegularExpression(pattern);
+        lambdaNFA = expression.createLambdaNFA();
+        nfa = lambdaNFA.createNFA();
+        dfa = nfa.createDFA();
+        minDFA = dfa.minimize();
+        regNFA = minDFA.createRegNFA();
+    }
+
+    @Benchmark
+    public RegularExpression parse() {
+        return new RegularExpression(pattern);
+    }
+
+    @Benchmark
+    public LambdaNFA createLambdaNFA() {
+        return expression.createLambdaNFA();
+    }
+
+    @Benchmark
+    public NFA createNFA() {
+        return lambdaNFA.createNFA();
+    }
+
+    @Benchmark
+    public DFA createDFA() {
+        return nfa.createDFA();
+    }
+
+    @Benchmark
+    public DFA minimize() {
+        return dfa.minimize();
+    }
+
+    @Benchmark
+    public DFAMatcher compile() {
+        return minDFA.compile();
+    }
+
+    @Benchmark
+    public RegularExpression createRegularExpression() {
+        return regNFA.createRegularExpression(RegNFA.ORDER_DYNAMIC);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kleenstheorem;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class represents the synthetic inputs of the benchmarks: families of
+ * patterns that grow with a size, and strings of a given length in the
+ * language of a pattern. Everything is made from a fixed seed, so two runs
+ * measure the same work.
+ *
+ * @author ThienDinh
+ */
+final class Corpus {
+
+    // Families of patterns.
+    // Star of a union of 16 * size random words over a to z, as in a
+    // keyword list.
+    static final String KEYWORDS = "keywords";
+    // (a+b)*a followed by size (a+b): the DFA has 2^(size+1) states, and
+    // the expression read back from it grows as fast.
+    static final String SUFFIX = "suffix";
+    // Stars nested 4 * size deep.
+    static final String NESTED = "nested";
+
+    // Seed of every random choice.
+    private static final long SEED = 20161018L;
+
+    private Corpus() {
+    }
+
+    /**
+     * Make a pattern of a family.
+     *
+     * @param family check with Corpus.KEYWORDS, SUFFIX and NESTED.
+     * @param size size of the pattern.
+     * @return a regular expression string.
+     * @throws IllegalArgumentException if the family is unknown.
+     */
+    static String pattern(String family, int size) {
+        StringBuilder sb = new StringBuilder();
+        switch (family) {
+            case KEYWORDS:
+                Random random = new Random(SEED);
+                sb.append('(');
+                for (int i = 0; i < 16 * size; i++) {
+                    if (i > 0) {
+                        sb.append('+');
+                    }
+                    int length = 3 + random.nextInt(6);
+                    for (int j = 0; j < length; j++) {
+                        sb.append((char) ('a' + random.nextInt(26)));
+                    }
+                }
+                return sb.append(")*").toString();
+            case SUFFIX:
+                sb.append("(a+b)*a");
+                for (int i = 0; i < size; i++) {
+                    sb.append("(a+b)");
+                }
+                return sb.toString();
+            case NESTED:
+                // ((a(b(c)*)*)*...: each level adds a letter under a star.
+                for (int i = 0; i < 4 * size; i++) {
+                    sb.append('(').append((char) ('a' + i % 26));
+                }
+                for (int i = 0; i < 4 * size; i++) {
+                    sb.append(")*");
+                }
+                return sb.toString();
+            default:
+                throw new IllegalArgumentException("Unknown family " + family);
+        }
+    }
+
+    /**
+     * Make a string of the language of a matcher by a random walk over its
+     * table. Once the string is long enough, the walk takes the shortest
+     * way to an accepting state. Only moves that are not cut are taken, so
+     * a matcher reads every prefix of the string to its end.
+     *
+     * @param matcher a compiled DFA that accepts some string.
+     * @param length least number of characters.
+     * @return a string accepted by the matcher, shorter than length only if
+     * the walk reaches a state without moves.
+     */
+    static String accepted(DFAMatcher matcher, int length) {
+        int[] charMap = matcher.getCharMap();
+        int stateCount = matcher.getStateCount();
+        // Moves from each state to the nearest accepting state, found by
+        // relaxing every move until nothing changes.
+        int[] distance = new int[stateCount];
+        Arrays.fill(distance, Integer.MAX_VALUE);
+        for (int state = 0; state < stateCount; state++) {
+            if (matcher.isAccepting(matcher.getRow(state))) {
+                distance[state] = 0;
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int state = 0; state < stateCount; state++) {
+                for (int ch = 0; ch < charMap.length; ch++) {
+                    int next = charMap[ch] < 0 ? -1
+                            : matcher.next(matcher.getRow(state), charMap[ch]);
+                    if (next >= 0) {
+                        int d = distance[matcher.getState(next)];
+                        if (d != Integer.MAX_VALUE && d + 1 < distance[state]) {
+                            distance[state] = d + 1;
+                            changed = true;
+                        }
+                    }
+                }
+            }
+        }
+        Random random = new Random(SEED);
+        StringBuilder sb = new StringBuilder(length);
+        int row = matcher.getInitialRow();
+        char[] moves = new char[charMap.length];
+        while (sb.length() < length || !matcher.isAccepting(row)) {
+            int state = matcher.getState(row);
+            int count = 0;
+            for (int ch = 0; ch < charMap.length; ch++) {
+                int next = charMap[ch] < 0 ? -1 : matcher.next(row, charMap[ch]);
+                if (next >= 0 && (sb.length() < length
+                        || distance[matcher.getState(next)] < distance[state])) {
+                    moves[count++] = (char) ch;
+                }
+            }
+            if (count == 0) {
+                break;
+            }
+            char ch = moves[random.nextInt(count)];
+            sb.append(ch);
+            row = matcher.next(row, charMap[ch]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kleenstheorem;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This class represents the benchmarks of match throughput. Every matcher
+ * reads the same input of CORPUS_SIZE characters, a prefix of a string of
+ * the language. No move of it is cut, so every matcher reads it to the end,
+ * though it may not accept it. An operation is one character, so the scores
+ * in ops/us are MB/s.
+ *
+ * @author ThienDinh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(MatchBenchmark.CORPUS_SIZE)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatchBenchmark {
+
+    // Characters of the input.
+    static final int CORPUS_SIZE = 1 << 20;
+
+    // Family of the pattern, see Corpus.
+    @Param({Corpus.KEYWORDS, Corpus.SUFFIX, Corpus.NESTED})
+    public String family;
+
+    // Size of the pattern.
+    @Param({"2", "8"})
+    public int size;
+
+    // The matchers.
+    private DFAMatcher matcher;
+    private AutomatonMatcher generated;
+    private LazyDFAMatcher lazyMatcher;
+    private AutomatonMatcher simulator;
+
+    // The input, in every form read.
+    private String text;
+    private char[] chars;
+    private ByteBuffer bytes;
+
+    @Setup
+    public void setUp() {
+        LambdaNFA lambdaNFA = new RegularExpression(Corpus.pattern(family, size))
+                .createLambdaNFA();
+        NFA nfa = lambdaNFA.createNFA();
+        DFA minDFA = nfa.createDFA().minimize();
+        matcher = minDFA.compile();
+        generated = minDFA.compileToClass(Integer.MAX_VALUE);
+        lazyMatcher = nfa.createLazyDFA(1 << 24);
+        simulator = lambdaNFA.createBitParallelMatcher();
+        // Cut to the exact size. The prefix may not be accepted, but every
+        // move of it is live, so the matchers still read the whole input.
+        text = Corpus.accepted(matcher, CORPUS_SIZE).substring(0, CORPUS_SIZE);
+        chars = text.toCharArray();
+        bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    @Benchmark
+    public boolean dfaString() {
+        return matcher.matches(text);
+    }
+
+    @Benchmark
+    public boolean dfaChars() {
+        return matcher.matches(chars, 0, chars.length);
+    }
+
+    @Benchmark
+    public boolean dfaBytes() {
+        return matcher.matches(bytes);
+    }
+
+    @Benchmark
+    public boolean generatedString() {
+        return generated.matches(text);
+    }
+
+    @Benchmark
+    public boolean lazyDFAString() {
+        return lazyMatcher.matches(text);
+    }
+
+    @Benchmark
+    public boolean bitParallelString() {
+        return simulator.matches(text);
+    }
+}
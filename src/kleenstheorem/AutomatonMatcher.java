@@ -0,0 +1,34 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kleenstheorem;
+
+/**
+ * This interface represents a matcher that decides whether a machine accepts
+ * a string. Every matching engine implements it so that callers can switch
+ * between engines.
+ *
+ * @author ThienDinh
+ */
+public interface AutomatonMatcher {
+
+    /**
+     * Check if the machine accepts a string.
+     *
+     * @param input a string.
+     * @return true if it does; otherwise, false.
+     */
+    boolean matches(CharSequence input);
+
+    /**
+     * Check if the machine accepts a range of a character array.
+     *
+     * @param input a character array.
+     * @param offset index of the first character.
+     * @param length number of characters.
+     * @return true if it does; otherwise, false.
+     */
+    boolean matches(char[] input, int offset, int length);
+}
@@ -0,0 +1,254 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kleenstheorem;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.TreeSet;
+
+/**
+ * This class represents a matcher that runs a lambda NFA or an NFA directly,
+ * without building a DFA. The set of active states is a bitset. For every
+ * state and letter, the lambda closure of the states it moves to is computed
+ * once, so one step of the simulation is an OR of those masks. A mask is
+ * ceil(m / 64) words for a machine with m states, and each of the at most
+ * m active states ORs one in, so matching a string of length n takes
+ * O(n * m * ceil(m / 64)) word operations, O(n * m) for machines of at most
+ * 64 states, however large the equivalent DFA would be.
+ *
+ * @author ThienDinh
+ */
+public final class BitParallelMatcher implements AutomatonMatcher {
+
+    // Column of each character of the alphabet, -1 if not in the alphabet.
+    private final int[] charMap;
+
+    // Number of states.
+    private final int size;
+
+    // Number of words of a set of states.
+    private final int words;
+
+    // Closure of the moves of each state by each column, indexed by
+    // column * size + state, null if there is no move.
+    private final long[][] successors;
+
+    // Closure of the initial state.
+    private final long[] initialSet;
+
+    // Final states.
+    private final long[] finalSet;
+
+    /**
+     * Constructor for a BitParallelMatcher. Transitions labelled by the empty
+     * string are lambda moves.
+     *
+     * @param automaton a lambda NFA or an NFA.
+     * @param alphabet the alphabet of the machine.
+     */
+    BitParallelMatcher(FiniteAutomaton automaton, TreeSet<Character> alphabet) {
+        this.charMap = DFAMatcher.createCharMap(alphabet);
+        int columns = Math.max(1, alphabet.size());
+        this.size = automaton.stateIdCount;
+        this.words = Math.max(1, (size + 63) >>> 6);
+
+        // Lambda closure of every state.
+        LambdaClosure closures = new LambdaClosure(automaton, null);
+
+        // Closure of the moves of every state by every letter.
+        this.successors = new long[columns * size][];
+        for (int i = 0; i < automaton.transitionCount; i++) {
+            if (automaton.transLabel[i].equals("")) {
+                continue;
+            }
+            int key = charMap[automaton.transLabel[i].charAt(0)] * size
+                    + automaton.transFrom[i];
+            if (successors[key] == null) {
+                successors[key] = new long[words];
+            }
+            long[] closure = closures.getClosure(automaton.transTo[i]);
+            for (int w = 0; w < words; w++) {
+                successors[key][w] |= closure[w];
+            }
+        }
+        this.initialSet = closures.getClosure(automaton.initialState);
+        this.finalSet = new long[words];
+        BitSet finalStates = automaton.finalStateSet;
+        for (int state = finalStates.nextSetBit(0); state >= 0;
+                state = finalStates.nextSetBit(state + 1)) {
+            finalSet[state >>> 6] |= 1L << state;
+        }
+    }
+
+    /**
+     * Check if the machine accepts a string. Machines of at most 64 states do
+     * not allocate; larger ones allocate two bitsets per call.
+     *
+     * @param input a string.
+     * @return true if it does; otherwise, false.
+     */
+    @Override
+    public boolean matches(CharSequence input) {
+        int length = input.length();
+        if (words == 1) {
+            long current = initialSet[0];
+            for (int i = 0; i < length && current != 0; i++) {
+                int column = columnOf(input.charAt(i));
+                if (column < 0) {
+                    return false;
+                }
+                current = step(current, column);
+            }
+            return (current & finalSet[0]) != 0;
+        }
+        long[] current = initialSet.clone();
+        long[] next = new long[words];
+        for (int i = 0; i < length; i++) {
+            int column = columnOf(input.charAt(i));
+            if (column < 0 || !step(current, column, next)) {
+                return false;
+            }
+            long[] swap = current;
+            current = next;
+            next = swap;
+        }
+        return intersects(current, finalSet);
+    }
+
+    /**
+     * Check if the machine accepts a range of a character array.
+     *
+     * @param input a character array.
+     * @param offset index of the first character.
+     * @param length number of characters.
+     * @return true if it does; otherwise, false.
+     */
+    @Override
+    public boolean matches(char[] input, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > input.length) {
+            throw new IndexOutOfBoundsException("offset " + offset
+                    + ", length " + length + ", array length " + input.length);
+        }
+        int end = offset + length;
+        if (words == 1) {
+            long current = initialSet[0];
+            for (int i = offset; i < end && current != 0; i++) {
+                int column = columnOf(input[i]);
+                if (column < 0) {
+                    return false;
+                }
+                current = step(current, column);
+            }
+            return (current & finalSet[0]) != 0;
+        }
+        long[] current = initialSet.clone();
+        long[] next = new long[words];
+        for (int i = offset; i < end; i++) {
+            int column = columnOf(input[i]);
+            if (column < 0 || !step(current, column, next)) {
+                return false;
+            }
+            long[] swap = current;
+            current = next;
+            next = swap;
+        }
+        return intersects(current, finalSet);
+    }
+
+    /**
+     * Get the number of states.
+     *
+     * @return number of states.
+     */
+    public int getStateCount() {
+        return size;
+    }
+
+    /**
+     * Get the column of a character.
+     *
+     * @param ch a character.
+     * @return the column, -1 if not in the alphabet.
+     */
+    private int columnOf(char ch) {
+        return ch < charMap.length ? charMap[ch] : -1;
+    }
+
+    /**
+     * Take one step from a set of at most 64 states.
+     *
+     * @param current the active states.
+     * @param column a column.
+     * @return the next active states.
+     */
+    private long step(long current, int column) {
+        long next = 0;
+        int base = column * size;
+        while (current != 0) {
+            long[] closure = successors[base + Long.numberOfTrailingZeros(current)];
+            if (closure != null) {
+                next |= closure[0];
+            }
+            current &= current - 1;
+        }
+        return next;
+    }
+
+    /**
+     * Take one step from a set of states.
+     *
+     * @param current the active states.
+     * @param column a column.
+     * @param next receives the next active states.
+     * @return false if no state is active after the step.
+     */
+    private boolean step(long[] current, int column, long[] next) {
+        Arrays.fill(next, 0L);
+        boolean active = false;
+        int base = column * size;
+        for (int w = 0; w < words; w++) {
+            long word = current[w];
+            while (word != 0) {
+                long[] closure = successors[base + (w << 6)
+                        + Long.numberOfTrailingZeros(word)];
+                if (closure != null) {
+                    for (int k = 0; k < words; k++) {
+                        next[k] |= closure[k];
+                    }
+                    active = true;
+                }
+                word &= word - 1;
+            }
+        }
+        return active;
+    }
+
+    /**
+     * Check if two sets of states have a common state.
+     *
+     * @param set1 a set of states.
+     * @param set2 another set of states.
+     * @return true if they do; otherwise, false.
+     */
+    private static boolean intersects(long[] set1, long[] set2) {
+        for (int w = 0; w < set1.length; w++) {
+            if ((set1[w] & set2[w]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Give a string representation of the matcher.
+     *
+     * @return a string.
+     */
+    @Override
+    public String toString() {
+        return "BitParallelMatcher: " + size + " states, " + words + " words";
+    }
+}
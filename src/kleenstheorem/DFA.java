@@ -5,6 +5,8 @@
  */
 package kleenstheorem;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.TreeSet;
 
 /**
@@ -32,15 +34,367 @@ public class DFA extends FiniteAutomaton {
         this.alphabet = (TreeSet<Character>) alphabet.clone();
     }
 
+    /**
+     * Constructor for a DFA of numbered states and no transitions.
+     *
+     * @param stateIdCount number of states.
+     * @param initialState an initial state.
+     * @param finalStateSet a final state set.
+     * @param descriptions descriptions of states, or null.
+     * @param alphabet an alphabet.
+     */
+    DFA(int stateIdCount, int initialState, BitSet finalStateSet,
+            String[] descriptions, TreeSet<Character> alphabet) {
+        super(stateIdCount, initialState, finalStateSet, descriptions);
+        this.alphabet = (TreeSet<Character>) alphabet.clone();
+    }
+
     /**
      * Create a RegNFA from the DFA.
      *
      * @return a RegNFA.
      */
     public RegNFA createRegNFA() {
-        RegNFA regNFA = new RegNFA(this.stateSet, initialState,
-                this.finalStateSet, this.transitionList);
-        return regNFA;
+        return new RegNFA(this);
+    }
+
+    /**
+     * Number the states by breadth first search from the initial state and
+     * build the table of moves between state numbers.
+     *
+     * @param order receives the state ids in numbering order.
+     * @param charMap the column of each character.
+     * @param columns number of columns of the table.
+     * @return the next state number of each state number and column, -1 if
+     * none. Its length is the number of reached states times columns.
+     */
+    private int[] createNextTable(int[] order, int[] charMap, int columns) {
+        // Group the moves by their beginning state.
+        int[] moves = new int[stateIdCount * columns];
+        Arrays.fill(moves, -1);
+        for (int i = 0; i < transitionCount; i++) {
+            moves[transFrom[i] * columns + charMap[transLabel[i].charAt(0)]]
+                    = transTo[i];
+        }
+        // Number the states by breadth first search from the initial state.
+        int[] numbers = new int[stateIdCount];
+        Arrays.fill(numbers, -1);
+        numbers[initialState] = 0;
+        order[0] = initialState;
+        int size = 1;
+        for (int i = 0; i < size; i++) {
+            for (int col = 0; col < columns; col++) {
+                int toState = moves[order[i] * columns + col];
+                if (toState >= 0 && numbers[toState] < 0) {
+                    numbers[toState] = size;
+                    order[size++] = toState;
+                }
+            }
+        }
+        int[] next = new int[size * columns];
+        for (int i = 0; i < size; i++) {
+            for (int col = 0; col < columns; col++) {
+                int toState = moves[order[i] * columns + col];
+                next[i * columns + col] = toState < 0 ? -1 : numbers[toState];
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Compile the DFA into a table-driven matcher. States are numbered in
+     * breadth first order from the initial state, and moves into states that
+     * cannot reach a final state are cut so that matching stops early. The
+     * table has a column per class of characters that the DFA does not tell
+     * apart, not per character of the alphabet, and is compressed when most
+     * of its entries are cut moves.
+     *
+     * @return a DFAMatcher.
+     */
+    public DFAMatcher compile() {
+        return compile(null);
+    }
+
+    /**
+     * Compile the DFA into a table-driven matcher, telling which state of
+     * the DFA each state of the matcher is.
+     *
+     * @param stateIds receives the id of the DFA state of each state of the
+     * matcher, or null. Its length must be at least the number of state ids.
+     * @return a DFAMatcher.
+     */
+    DFAMatcher compile(int[] stateIds) {
+        int[] charMap = DFAMatcher.createCharMap(alphabet);
+        int columns = Math.max(1, alphabet.size());
+        int[] order = new int[stateIdCount];
+        int[] next = createNextTable(order, charMap, columns);
+        int size = next.length / columns;
+        boolean[] accepting = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            accepting[i] = finalStateSet.get(order[i]);
+        }
+        // Find the states that can reach a final state by searching
+        // backward from the final states.
+        int[] inStart = new int[size + 1];
+        for (int target : next) {
+            if (target >= 0) {
+                inStart[target + 1]++;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            inStart[i + 1] += inStart[i];
+        }
+        int[] inStates = new int[inStart[size]];
+        int[] fill = inStart.clone();
+        for (int i = 0; i < next.length; i++) {
+            if (next[i] >= 0) {
+                inStates[fill[next[i]]++] = i / columns;
+            }
+        }
+        boolean[] live = accepting.clone();
+        int[] openList = new int[size];
+        int openSize = 0;
+        for (int i = 0; i < size; i++) {
+            if (live[i]) {
+                openList[openSize++] = i;
+            }
+        }
+        while (openSize > 0) {
+            int state = openList[--openSize];
+            for (int j = inStart[state]; j < inStart[state + 1]; j++) {
+                if (!live[inStates[j]]) {
+                    live[inStates[j]] = true;
+                    openList[openSize++] = inStates[j];
+                }
+            }
+        }
+        for (int i = 0; i < next.length; i++) {
+            if (next[i] >= 0 && !live[next[i]]) {
+                next[i] = -1;
+            }
+        }
+        // Characters that no state tells apart share a column. Rows store
+        // offsets so that the matcher does not multiply.
+        int[] table = DFAMatcher.createClassTable(charMap, next, columns);
+        int[] numbers = stateIds == null ? null : new int[size];
+        DFAMatcher matcher = DFAMatcher.create(charMap, table.length / size,
+                table, accepting, live[0] ? 0 : -1, numbers);
+        if (stateIds != null) {
+            for (int i = 0; i < size; i++) {
+                stateIds[numbers[i]] = order[i];
+            }
+        }
+        return matcher;
+    }
+
+    /**
+     * Compile the DFA into a JVM class of its own, where every state is a
+     * block of code that switches on the next character. The class is made
+     * at run time by MatcherGenerator. Large DFAs make large methods that the
+     * JIT does not compile well, so above the given number of states, or if
+     * the class cannot be made, the table-driven matcher is returned.
+     *
+     * @param maxStates most states to generate a class for.
+     * @return a generated matcher, or a DFAMatcher.
+     */
+    public AutomatonMatcher compileToClass(int maxStates) {
+        DFAMatcher matcher = compile();
+        if (matcher.getStateCount() > maxStates) {
+            return matcher;
+        }
+        AutomatonMatcher generated = MatcherGenerator.generate(matcher);
+        return generated == null ? matcher : generated;
+    }
+
+    /**
+     * Create the minimal DFA of the same language by Hopcroft's partition
+     * refinement. Unreachable states are dropped and equivalent states are
+     * merged. A merged state keeps the description of its smallest member.
+     *
+     * @return a new minimal DFA.
+     */
+    public DFA minimize() {
+        int[] charMap = DFAMatcher.createCharMap(alphabet);
+        int columns = Math.max(1, alphabet.size());
+        int[] order = new int[stateIdCount];
+        int[] next = createNextTable(order, charMap, columns);
+        int size = next.length / columns;
+        // Missing moves go to an extra sink state to make the DFA complete.
+        int total = size;
+        for (int target : next) {
+            if (target < 0) {
+                total = size + 1;
+                break;
+            }
+        }
+        next = Arrays.copyOf(next, total * columns);
+        for (int i = 0; i < next.length; i++) {
+            if (i >= size * columns || next[i] < 0) {
+                next[i] = size;
+            }
+        }
+        boolean[] accepting = new boolean[total];
+        for (int i = 0; i < size; i++) {
+            accepting[i] = finalStateSet.get(order[i]);
+        }
+        // Index the moves backward: the states that go to a state by a column.
+        int[] inStart = new int[total * columns + 1];
+        for (int i = 0; i < next.length; i++) {
+            inStart[next[i] * columns + i % columns + 1]++;
+        }
+        for (int i = 0; i < total * columns; i++) {
+            inStart[i + 1] += inStart[i];
+        }
+        int[] inStates = new int[next.length];
+        int[] fill = inStart.clone();
+        for (int i = 0; i < next.length; i++) {
+            inStates[fill[next[i] * columns + i % columns]++] = i / columns;
+        }
+
+        // Every block is a range of the elements array. The marked members
+        // of a block are moved to the front of its range.
+        int[] elements = new int[total];
+        int[] location = new int[total];
+        int[] blockOf = new int[total];
+        int[] first = new int[total];
+        int[] past = new int[total];
+        int[] marked = new int[total];
+        int blockCount = 0;
+        int count = 0;
+        // Initial partition: final states and non-final states.
+        for (int pass = 0; pass < 2; pass++) {
+            int begin = count;
+            for (int i = 0; i < total; i++) {
+                if (accepting[i] == (pass == 0)) {
+                    elements[count] = i;
+                    location[i] = count;
+                    blockOf[i] = blockCount;
+                    count++;
+                }
+            }
+            if (count > begin) {
+                first[blockCount] = begin;
+                past[blockCount] = count;
+                marked[blockCount] = begin;
+                blockCount++;
+            }
+        }
+        // Work list of splitters, each one is a block and a column.
+        int[] workList = new int[total * columns];
+        boolean[] inWorkList = new boolean[total * columns];
+        int workSize = 0;
+        if (blockCount == 2) {
+            int smaller = past[0] - first[0] <= past[1] - first[1] ? 0 : 1;
+            for (int col = 0; col < columns; col++) {
+                workList[workSize++] = smaller * columns + col;
+                inWorkList[smaller * columns + col] = true;
+            }
+        }
+        int[] splitter = new int[total];
+        int[] touched = new int[total];
+        while (workSize > 0) {
+            int item = workList[--workSize];
+            inWorkList[item] = false;
+            int block = item / columns;
+            int col = item % columns;
+            // Copy the splitter since it may be split while marking.
+            int splitterSize = 0;
+            for (int i = first[block]; i < past[block]; i++) {
+                splitter[splitterSize++] = elements[i];
+            }
+            // Mark the states that go into the splitter by the column.
+            int touchedCount = 0;
+            for (int i = 0; i < splitterSize; i++) {
+                int key = splitter[i] * columns + col;
+                for (int j = inStart[key]; j < inStart[key + 1]; j++) {
+                    int state = inStates[j];
+                    int b = blockOf[state];
+                    int loc = location[state];
+                    if (loc < marked[b]) {
+                        continue;
+                    }
+                    if (marked[b] == first[b]) {
+                        touched[touchedCount++] = b;
+                    }
+                    int other = elements[marked[b]];
+                    elements[marked[b]] = state;
+                    location[state] = marked[b];
+                    elements[loc] = other;
+                    location[other] = loc;
+                    marked[b]++;
+                }
+            }
+            // Split every block that is only partly marked.
+            for (int i = 0; i < touchedCount; i++) {
+                int b = touched[i];
+                if (marked[b] == past[b]) {
+                    marked[b] = first[b];
+                    continue;
+                }
+                int newBlock = blockCount++;
+                first[newBlock] = first[b];
+                past[newBlock] = marked[b];
+                marked[newBlock] = first[b];
+                first[b] = past[newBlock];
+                marked[b] = first[b];
+                for (int j = first[newBlock]; j < past[newBlock]; j++) {
+                    blockOf[elements[j]] = newBlock;
+                }
+                int smaller = past[newBlock] - first[newBlock]
+                        <= past[b] - first[b] ? newBlock : b;
+                for (int c = 0; c < columns; c++) {
+                    int added = inWorkList[b * columns + c]
+                            ? newBlock * columns + c : smaller * columns + c;
+                    if (!inWorkList[added]) {
+                        inWorkList[added] = true;
+                        workList[workSize++] = added;
+                    }
+                }
+            }
+        }
+
+        // Every block becomes a state named after its smallest member.
+        // A block that only holds the extra sink state is left out.
+        int[] representative = new int[blockCount];
+        Arrays.fill(representative, -1);
+        for (int i = 0; i < size; i++) {
+            int rep = representative[blockOf[i]];
+            if (rep < 0 || getDescription(order[i])
+                    .compareTo(getDescription(order[rep])) < 0) {
+                representative[blockOf[i]] = i;
+            }
+        }
+        // Number the blocks in the order of their representatives.
+        DFA minDFA = new DFA(0, 0, new BitSet(), null, alphabet);
+        minDFA.pattern = pattern;
+        int[] blockIds = new int[blockCount];
+        Arrays.fill(blockIds, -1);
+        for (int i = 0; i < size; i++) {
+            if (representative[blockOf[i]] == i) {
+                blockIds[blockOf[i]] = minDFA.addState(getDescription(order[i]));
+            }
+        }
+        minDFA.initialState = blockIds[blockOf[0]];
+        String[] labels = new String[columns];
+        for (Character ch : alphabet) {
+            labels[charMap[ch]] = String.valueOf(ch);
+        }
+        for (int i = 0; i < size; i++) {
+            if (representative[blockOf[i]] != i) {
+                continue;
+            }
+            int fromState = blockIds[blockOf[i]];
+            if (accepting[i]) {
+                minDFA.finalStateSet.set(fromState);
+            }
+            for (int col = 0; col < alphabet.size(); col++) {
+                int toState = blockIds[blockOf[next[i * columns + col]]];
+                if (toState >= 0) {
+                    minDFA.addTransition(fromState, labels[col], toState);
+                }
+            }
+        }
+        return minDFA;
     }
 
     /**
@@ -0,0 +1,991 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kleenstheorem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class represents a compiled, table-driven DFA. States are integers and
+ * the transition function is a table, so matching does not create any
+ * object per character. A matcher is immutable and can be shared by threads.
+ *
+ * The table is dense, one row of columns per state, unless few of its
+ * entries are moves, as in large DFAs where most moves go to the dead
+ * state. Then the rows are packed into one array by row displacement: each
+ * state has a row offset of its own, the rows overlap where their moves do
+ * not, and a check array tells which state an entry belongs to. A move is
+ * still one lookup.
+ *
+ * Bytes can be matched too, each byte being the character of the same
+ * value from 0 to 255 (ISO-8859-1). Streams, channels and files are read
+ * in chunks that are run through the table as they are, without being
+ * turned into strings.
+ *
+ * A large buffer or file can be matched on a ForkJoinPool. It is cut into
+ * chunks and each chunk is run from several start states at once, the runs
+ * that meet in the same state being merged as they go. The states reached
+ * at the ends of the chunks are then chained. When the table is small every
+ * state is a start state, so no chunk is read twice; otherwise a chunk
+ * starts from the state guessed by running the bytes just before it, and
+ * is run again when the guess is wrong.
+ *
+ * @author ThienDinh
+ */
+public final class DFAMatcher implements AutomatonMatcher {
+
+    // Size of the chunks read from streams and channels.
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    // Largest region of a file mapped at once.
+    private static final long MAP_SIZE = 1L << 30;
+
+    // Smallest chunk of a parallel match.
+    private static final int PARALLEL_CHUNK = 1 << 20;
+
+    // Most states that a chunk of a parallel match is run from.
+    private static final int ENUMERATE_LIMIT = 64;
+
+    // A table is compressed when fewer than one entry in this many is a
+    // move.
+    private static final int COMPRESS_DENSITY = 4;
+
+    // Bytes before a chunk used to guess its start state.
+    private static final int LOOKBACK = 4096;
+
+    // Bytes run between two merges of the runs of a chunk.
+    private static final int MERGE_INTERVAL = 64;
+
+    // Bytes run by a single run of a chunk between two checks for a stop.
+    private static final int STOP_INTERVAL = 1 << 16;
+
+    // Column of each character of the alphabet, -1 if not in the alphabet.
+    // Characters that no state tells apart share a column.
+    private final int[] charMap;
+
+    // Number of columns of the table, one per class of characters.
+    private final int columns;
+
+    // Transition table. Each entry is the row offset (state * columns if
+    // dense) of the next state, or -1 if the next state cannot reach a
+    // final state.
+    private final int[] table;
+
+    // Row offset of the state each entry of a compressed table belongs to,
+    // -1 for a free entry. Null if the table is dense.
+    private final int[] check;
+
+    // Row offset of each state of a compressed table, ascending. Null if the
+    // table is dense.
+    private final int[] rowOffsets;
+
+    // Accepting flag of each state.
+    private final boolean[] accepting;
+
+    // Row offset of the initial state, or -1 if no string is accepted.
+    private final int initialRow;
+
+    /**
+     * Constructor for a DFAMatcher.
+     *
+     * @param charMap column of each character, -1 if not in the alphabet.
+     * @param columns number of columns of the table.
+     * @param table transition table of row offsets.
+     * @param accepting accepting flag of each state.
+     * @param initialRow row offset of the initial state.
+     */
+    DFAMatcher(int[] charMap, int columns, int[] table,
+            boolean[] accepting, int initialRow) {
+        this(charMap, columns, table, null, null, accepting, initialRow);
+    }
+
+    /**
+     * Constructor for a DFAMatcher.
+     *
+     * @param charMap column of each character, -1 if not in the alphabet.
+     * @param columns number of columns of the table.
+     * @param table transition table of row offsets.
+     * @param check owner of each entry of a compressed table, or null.
+     * @param rowOffsets row offset of each state of a compressed table, or
+     * null.
+     * @param accepting accepting flag of each state.
+     * @param initialRow row offset of the initial state.
+     */
+    private DFAMatcher(int[] charMap, int columns, int[] table, int[] check,
+            int[] rowOffsets, boolean[] accepting, int initialRow) {
+        this.charMap = charMap;
+        this.columns = columns;
+        this.table = table;
+        this.check = check;
+        this.rowOffsets = rowOffsets;
+        this.accepting = accepting;
+        this.initialRow = initialRow;
+    }
+
+    /**
+     * Create a matcher over a dense table, compressed if few of its entries
+     * are moves and the packed table is smaller.
+     *
+     * @param charMap column of each character, -1 if not in the alphabet.
+     * @param columns number of columns of the table.
+     * @param table dense transition table of row offsets.
+     * @param accepting accepting flag of each state.
+     * @param initialRow row offset of the initial state.
+     * @return a DFAMatcher.
+     */
+    static DFAMatcher create(int[] charMap, int columns, int[] table,
+            boolean[] accepting, int initialRow) {
+        return create(charMap, columns, table, accepting, initialRow, null);
+    }
+
+    /**
+     * Create a matcher over a dense table, compressed if few of its entries
+     * are moves and the packed table is smaller. Compressing renumbers the
+     * states.
+     *
+     * @param charMap column of each character, -1 if not in the alphabet.
+     * @param columns number of columns of the table.
+     * @param table dense transition table of row offsets.
+     * @param accepting accepting flag of each state.
+     * @param initialRow row offset of the initial state.
+     * @param stateNumbers receives the number in the matcher of each state
+     * of the dense table, or null.
+     * @return a DFAMatcher.
+     */
+    static DFAMatcher create(int[] charMap, int columns, int[] table,
+            boolean[] accepting, int initialRow, int[] stateNumbers) {
+        if (stateNumbers != null) {
+            for (int state = 0; state < accepting.length; state++) {
+                stateNumbers[state] = state;
+            }
+        }
+        int moves = 0;
+        for (int target : table) {
+            if (target >= 0) {
+                moves++;
+            }
+        }
+        if ((long) moves * COMPRESS_DENSITY >= table.length) {
+            return new DFAMatcher(charMap, columns, table, accepting, initialRow);
+        }
+        int stateCount = accepting.length;
+        // Place the states with the most moves first, each at the first
+        // offset where its moves fall on free entries.
+        int[] moveCount = new int[stateCount];
+        int[] byMoves = new int[columns + 2];
+        for (int state = 0; state < stateCount; state++) {
+            for (int col = 0; col < columns; col++) {
+                if (table[state * columns + col] >= 0) {
+                    moveCount[state]++;
+                }
+            }
+            byMoves[columns - moveCount[state] + 1]++;
+        }
+        for (int i = 0; i <= columns; i++) {
+            byMoves[i + 1] += byMoves[i];
+        }
+        int[] order = new int[stateCount];
+        for (int state = 0; state < stateCount; state++) {
+            order[byMoves[columns - moveCount[state]]++] = state;
+        }
+        int[] offsetOf = new int[stateCount];
+        int[] owner = new int[Math.max(16, moves * 2)];
+        Arrays.fill(owner, -1);
+        BitSet usedOffsets = new BitSet();
+        int firstFree = 0;
+        int length = 0;
+        int[] cols = new int[columns];
+        for (int state : order) {
+            int count = 0;
+            for (int col = 0; col < columns; col++) {
+                if (table[state * columns + col] >= 0) {
+                    cols[count++] = col;
+                }
+            }
+            int offset = count == 0 ? 0 : Math.max(0, firstFree - cols[0]);
+            while (true) {
+                offset = usedOffsets.nextClearBit(offset);
+                if (offset + columns > owner.length) {
+                    int oldLength = owner.length;
+                    owner = Arrays.copyOf(owner, Math.max(owner.length * 2,
+                            offset + columns));
+                    Arrays.fill(owner, oldLength, owner.length, -1);
+                }
+                int k = 0;
+                while (k < count && owner[offset + cols[k]] < 0) {
+                    k++;
+                }
+                if (k == count) {
+                    break;
+                }
+                offset++;
+            }
+            usedOffsets.set(offset);
+            offsetOf[state] = offset;
+            for (int k = 0; k < count; k++) {
+                owner[offset + cols[k]] = state;
+            }
+            length = Math.max(length, offset + columns);
+            while (firstFree < owner.length && owner[firstFree] >= 0) {
+                firstFree++;
+            }
+        }
+        // Two ints per entry: pack only if it saves memory.
+        if (2L * length >= table.length) {
+            return new DFAMatcher(charMap, columns, table, accepting, initialRow);
+        }
+        int[] packed = new int[length];
+        int[] check = new int[length];
+        Arrays.fill(packed, -1);
+        Arrays.fill(check, -1);
+        for (int i = 0; i < length; i++) {
+            int state = owner[i];
+            if (state >= 0) {
+                int target = table[state * columns + i - offsetOf[state]];
+                packed[i] = offsetOf[target / columns];
+                check[i] = offsetOf[state];
+            }
+        }
+        // Number the states in the order of their row offsets, so that the
+        // state of a row is found by binary search.
+        Integer[] byOffset = new Integer[stateCount];
+        for (int state = 0; state < stateCount; state++) {
+            byOffset[state] = state;
+        }
+        final int[] offsets = offsetOf;
+        Arrays.sort(byOffset, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer state1, Integer state2) {
+                return Integer.compare(offsets[state1], offsets[state2]);
+            }
+        });
+        int[] rowOffsets = new int[stateCount];
+        boolean[] sortedAccepting = new boolean[stateCount];
+        for (int i = 0; i < stateCount; i++) {
+            rowOffsets[i] = offsetOf[byOffset[i]];
+            sortedAccepting[i] = accepting[byOffset[i]];
+            if (stateNumbers != null) {
+                stateNumbers[byOffset[i]] = i;
+            }
+        }
+        return new DFAMatcher(charMap, columns, packed, check, rowOffsets, sortedAccepting,
+                initialRow < 0 ? -1 : offsetOf[initialRow / columns]);
+    }
+
+    /**
+     * Build the map from a character to its column in the table.
+     *
+     * @param alphabet an alphabet.
+     * @return the column of each character, -1 if not in the alphabet.
+     */
+    static int[] createCharMap(TreeSet<Character> alphabet) {
+        int size = alphabet.isEmpty() ? 0 : alphabet.last() + 1;
+        int[] charMap = new int[size];
+        for (int i = 0; i < size; i++) {
+            charMap[i] = -1;
+        }
+        int column = 0;
+        for (Character ch : alphabet) {
+            charMap[ch] = column;
+            column++;
+        }
+        return charMap;
+    }
+
+    /**
+     * Find the classes of columns of a table that no state tells apart:
+     * two columns are in the same class when every state goes to the same
+     * state on both. The classes are refined one row at a time.
+     *
+     * @param next table of next states, -1 for none.
+     * @param columns number of columns of the table.
+     * @return the class of each column, numbered in order of first column.
+     */
+    static int[] createClasses(int[] next, int columns) {
+        int[] classOf = new int[columns];
+        int classCount = 1;
+        HashMap<Long, Integer> split = new HashMap<>();
+        for (int row = 0; row < next.length && classCount < columns; row += columns) {
+            split.clear();
+            for (int col = 0; col < columns; col++) {
+                Long key = ((long) classOf[col] << 32) | (next[row + col] & 0xFFFFFFFFL);
+                Integer newClass = split.get(key);
+                if (newClass == null) {
+                    newClass = split.size();
+                    split.put(key, newClass);
+                }
+                classOf[col] = newClass;
+            }
+            classCount = split.size();
+        }
+        return classOf;
+    }
+
+    /**
+     * Build a table with one column per class from a table of next states,
+     * and map the characters to their class.
+     *
+     * @param charMap column of each character, -1 if not in the alphabet;
+     * replaced by its class.
+     * @param next table of next states, -1 for none.
+     * @param columns number of columns of next.
+     * @return the table of row offsets; its number of columns is the number
+     * of classes.
+     */
+    static int[] createClassTable(int[] charMap, int[] next, int columns) {
+        int[] classOf = createClasses(next, columns);
+        int classCount = 0;
+        int[] firstColumn = new int[columns];
+        for (int col = 0; col < columns; col++) {
+            if (classOf[col] == classCount) {
+                firstColumn[classCount++] = col;
+            }
+        }
+        for (int ch = 0; ch < charMap.length; ch++) {
+            if (charMap[ch] >= 0) {
+                charMap[ch] = classOf[charMap[ch]];
+            }
+        }
+        int rows = next.length / columns;
+        int[] table = new int[rows * classCount];
+        for (int state = 0; state < rows; state++) {
+            for (int c = 0; c < classCount; c++) {
+                int target = next[state * columns + firstColumn[c]];
+                table[state * classCount + c] = target < 0 ? -1 : target * classCount;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Check if the machine accepts a string.
+     *
+     * @param input a string.
+     * @return true if it does; otherwise, false.
+     */
+    @Override
+    public boolean matches(CharSequence input) {
+        return isAccepting(run(initialRow, input));
+    }
+
+    /**
+     * Check if the machine accepts a range of a character array.
+     *
+     * @param input a character array.
+     * @param offset index of the first character.
+     * @param length number of characters.
+     * @return true if it does; otherwise, false.
+     */
+    @Override
+    public boolean matches(char[] input, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > input.length) {
+            throw new IndexOutOfBoundsException("offset " + offset
+                    + ", length " + length + ", array length " + input.length);
+        }
+        return isAccepting(run(initialRow, input, offset, offset + length));
+    }
+
+    /**
+     * Run the table over a string.
+     *
+     * @param row the row offset of the current state, or -1.
+     * @param input a string.
+     * @return the row offset of the state reached, or -1 if no string
+     * going on from here is accepted.
+     */
+    int run(int row, CharSequence input) {
+        int[] charMap = this.charMap;
+        int[] table = this.table;
+        int[] check = this.check;
+        int length = input.length();
+        for (int i = 0; i < length && row >= 0; i++) {
+            char ch = input.charAt(i);
+            if (ch >= charMap.length || charMap[ch] < 0) {
+                return -1;
+            }
+            int entry = row + charMap[ch];
+            row = check == null || check[entry] == row ? table[entry] : -1;
+        }
+        return row;
+    }
+
+    /**
+     * Run the table over a range of a character array. The range is not
+     * checked.
+     *
+     * @param row the row offset of the current state, or -1.
+     * @param input a character array.
+     * @param from index of the first character.
+     * @param to index after the last character.
+     * @return the row offset of the state reached, or -1 if no string
+     * going on from here is accepted.
+     */
+    int run(int row, char[] input, int from, int to) {
+        int[] charMap = this.charMap;
+        int[] table = this.table;
+        int[] check = this.check;
+        for (int i = from; i < to && row >= 0; i++) {
+            char ch = input[i];
+            if (ch >= charMap.length || charMap[ch] < 0) {
+                return -1;
+            }
+            int entry = row + charMap[ch];
+            row = check == null || check[entry] == row ? table[entry] : -1;
+        }
+        return row;
+    }
+
+    /**
+     * Get the number of columns of the table.
+     *
+     * @return number of columns.
+     */
+    int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Get the state of a row.
+     *
+     * @param row a row offset.
+     * @return its state.
+     */
+    int getState(int row) {
+        return rowOffsets == null ? row / columns
+                : Arrays.binarySearch(rowOffsets, row);
+    }
+
+    /**
+     * Get the row offset of the initial state.
+     *
+     * @return the row offset, or -1 if no string is accepted.
+     */
+    int getInitialRow() {
+        return initialRow;
+    }
+
+    /**
+     * Check if the state of a row is accepting.
+     *
+     * @param row a row offset, or -1.
+     * @return true if it is; otherwise, false.
+     */
+    boolean isAccepting(int row) {
+        return row >= 0 && accepting[getState(row)];
+    }
+
+    /**
+     * Run the table over a range of a byte array.
+     *
+     * @param row the row offset of the current state, or -1.
+     * @param input a byte array.
+     * @param from index of the first byte.
+     * @param to index after the last byte.
+     * @return the row offset of the state reached, or -1 if no string
+     * going on from here is accepted.
+     */
+    int run(int row, byte[] input, int from, int to) {
+        int[] charMap = this.charMap;
+        int[] table = this.table;
+        int[] check = this.check;
+        for (int i = from; i < to && row >= 0; i++) {
+            int ch = input[i] & 0xFF;
+            if (ch >= charMap.length || charMap[ch] < 0) {
+                return -1;
+            }
+            int entry = row + charMap[ch];
+            row = check == null || check[entry] == row ? table[entry] : -1;
+        }
+        return row;
+    }
+
+    /**
+     * Run the table over the remaining bytes of a buffer. A buffer backed
+     * by an array is read through the array; other buffers, such as mapped
+     * files, are read with absolute gets. The position is not moved.
+     *
+     * @param row the row offset of the current state, or -1.
+     * @param input a byte buffer.
+     * @return the row offset of the state reached, or -1 if no string
+     * going on from here is accepted.
+     */
+    int run(int row, ByteBuffer input) {
+        if (input.hasArray()) {
+            int offset = input.arrayOffset();
+            return run(row, input.array(), offset + input.position(),
+                    offset + input.limit());
+        }
+        int[] charMap = this.charMap;
+        int[] table = this.table;
+        int[] check = this.check;
+        int end = input.limit();
+        for (int i = input.position(); i < end && row >= 0; i++) {
+            int ch = input.get(i) & 0xFF;
+            if (ch >= charMap.length || charMap[ch] < 0) {
+                return -1;
+            }
+            int entry = row + charMap[ch];
+            row = check == null || check[entry] == row ? table[entry] : -1;
+        }
+        return row;
+    }
+
+    /**
+     * Get the column of each character, for MatcherGenerator. The array is
+     * not copied.
+     *
+     * @return the column of each character, -1 if not in the alphabet.
+     */
+    int[] getCharMap() {
+        return charMap;
+    }
+
+    /**
+     * Get the row offset of the next state.
+     *
+     * @param row the row offset of the current state.
+     * @param col a column.
+     * @return the row offset of the next state, or -1 if it cannot reach a
+     * final state.
+     */
+    int next(int row, int col) {
+        int entry = row + col;
+        return check == null || check[entry] == row ? table[entry] : -1;
+    }
+
+    /**
+     * Get the row offset of a state.
+     *
+     * @param state a state.
+     * @return its row offset.
+     */
+    int getRow(int state) {
+        return rowOffsets == null ? state * columns : rowOffsets[state];
+    }
+
+    /**
+     * Create a matching that is given its input in chunks.
+     *
+     * @return a StreamMatcher at the initial state.
+     */
+    public StreamMatcher createStreamMatcher() {
+        return new StreamMatcher(this);
+    }
+
+    /**
+     * Check if the machine accepts the remaining bytes of a buffer, such as
+     * a MappedByteBuffer of a file. The position is not moved.
+     *
+     * @param input a byte buffer.
+     * @return true if it does; otherwise, false.
+     */
+    public boolean matches(ByteBuffer input) {
+        return isAccepting(run(initialRow, input));
+    }
+
+    /**
+     * Check if the machine accepts the bytes of a stream. The stream is read
+     * in chunks until its end, or until no string going on is accepted. It
+     * is not closed.
+     *
+     * @param input an input stream.
+     * @return true if it does; otherwise, false.
+     * @throws IOException if the stream cannot be read.
+     */
+    public boolean matches(InputStream input) throws IOException {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int row = initialRow;
+        int count;
+        while (row >= 0 && (count = input.read(chunk)) >= 0) {
+            row = run(row, chunk, 0, count);
+        }
+        return isAccepting(row);
+    }
+
+    /**
+     * Check if the machine accepts the bytes of a channel. The channel is
+     * read in chunks until its end, or until no string going on is
+     * accepted. It is not closed.
+     *
+     * @param input a readable channel.
+     * @return true if it does; otherwise, false.
+     * @throws IOException if the channel cannot be read.
+     */
+    public boolean matches(ReadableByteChannel input) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+        int row = initialRow;
+        while (row >= 0 && input.read(chunk) >= 0) {
+            chunk.flip();
+            row = run(row, chunk);
+            chunk.clear();
+        }
+        return isAccepting(row);
+    }
+
+    /**
+     * Check if the machine accepts the bytes of a file. The file is mapped
+     * into memory one region at a time, so it can be larger than 2 GB and
+     * is not copied into the heap.
+     *
+     * @param file path of a file.
+     * @return true if it does; otherwise, false.
+     * @throws IOException if the file cannot be read.
+     */
+    public boolean matches(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int row = initialRow;
+            for (long position = 0; position < size && row >= 0; position += MAP_SIZE) {
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY,
+                        position, Math.min(MAP_SIZE, size - position));
+                row = run(row, region);
+            }
+            return isAccepting(row);
+        }
+    }
+
+    /**
+     * Check if the machine accepts the remaining bytes of a buffer, sharing
+     * the work on a ForkJoinPool. The result is the one of matches(input).
+     * The position is not moved.
+     *
+     * @param input a byte buffer.
+     * @param pool a ForkJoinPool, or null to work on this thread.
+     * @return true if it does; otherwise, false.
+     */
+    public boolean matches(ByteBuffer input, ForkJoinPool pool) {
+        return isAccepting(run(initialRow, input, pool));
+    }
+
+    /**
+     * Check if the machine accepts the bytes of a file, sharing the work on
+     * a ForkJoinPool. The file is mapped one region at a time.
+     *
+     * @param file path of a file.
+     * @param pool a ForkJoinPool, or null to work on this thread.
+     * @return true if it does; otherwise, false.
+     * @throws IOException if the file cannot be read.
+     */
+    public boolean matches(Path file, ForkJoinPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int row = initialRow;
+            for (long position = 0; position < size && row >= 0; position += MAP_SIZE) {
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY,
+                        position, Math.min(MAP_SIZE, size - position));
+                row = run(row, region, pool);
+            }
+            return isAccepting(row);
+        }
+    }
+
+    /**
+     * Run the table over the remaining bytes of a buffer in chunks on a
+     * ForkJoinPool. The position is not moved.
+     *
+     * @param row the row offset of the current state, or -1.
+     * @param input a byte buffer.
+     * @param pool a ForkJoinPool, or null to work on this thread.
+     * @return the row offset of the state reached, or -1 if no string
+     * going on from here is accepted.
+     */
+    private int run(int row, ByteBuffer input, ForkJoinPool pool) {
+        int length = input.remaining();
+        if (pool == null || row < 0 || length < 2 * PARALLEL_CHUNK) {
+            return run(row, input);
+        }
+        int chunks = Math.min(length / PARALLEL_CHUNK, pool.getParallelism() * 4);
+        int[] bounds = new int[chunks + 1];
+        for (int c = 0; c <= chunks; c++) {
+            bounds[c] = input.position() + (int) ((long) length * c / chunks);
+        }
+        // Start states of every chunk but the first.
+        int[] allRows = null;
+        if (accepting.length <= ENUMERATE_LIMIT) {
+            allRows = new int[accepting.length];
+            for (int state = 0; state < allRows.length; state++) {
+                allRows[state] = getRow(state);
+            }
+        }
+        AtomicBoolean stop = new AtomicBoolean();
+        ChunkTask task = new ChunkTask(input, bounds, row, allRows, stop, 0, chunks);
+        pool.invoke(task);
+        if (stop.get()) {
+            return -1;
+        }
+        // Chain the chunks; a chunk not run from the state it is reached in
+        // is run again.
+        for (int c = 0; c < chunks && row >= 0; c++) {
+            int k = Arrays.binarySearch(task.starts[c], row);
+            if (k >= 0) {
+                row = task.ends[c][k];
+            } else {
+                ByteBuffer chunk = input.duplicate();
+                chunk.limit(bounds[c + 1]).position(bounds[c]);
+                row = run(row, chunk);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Run a range of a buffer from several start states at once. Runs that
+     * reach the same state are merged, and once one run is left it goes on
+     * alone.
+     *
+     * @param input a byte buffer.
+     * @param from index of the first byte.
+     * @param to index after the last byte.
+     * @param starts row offsets of the start states, ascending.
+     * @param stop set when the whole match is known to fail.
+     * @return the row offset reached from each start state, or -1; null if
+     * stopped.
+     */
+    private int[] runAll(ByteBuffer input, int from, int to, int[] starts,
+            AtomicBoolean stop) {
+        int[] charMap = this.charMap;
+        // Distinct live rows being run, and the run of each start state, -1
+        // once it is dead.
+        int[] rows = starts.clone();
+        int rowCount = rows.length;
+        int[] runOf = new int[starts.length];
+        for (int k = 0; k < runOf.length; k++) {
+            runOf[k] = k;
+        }
+        int[] merged = new int[accepting.length];
+        int[] renumber = new int[rowCount];
+        int i = from;
+        while (i < to && rowCount > 1) {
+            if (stop.get()) {
+                return null;
+            }
+            int end = Math.min(to, i + MERGE_INTERVAL);
+            for (; i < end; i++) {
+                int ch = input.get(i) & 0xFF;
+                int col = ch < charMap.length ? charMap[ch] : -1;
+                for (int j = 0; j < rowCount; j++) {
+                    int current = rows[j];
+                    rows[j] = current < 0 || col < 0 ? -1 : next(current, col);
+                }
+            }
+            // Merge the runs in the same state and drop the dead ones.
+            Arrays.fill(merged, -1);
+            int count = 0;
+            for (int j = 0; j < rowCount; j++) {
+                if (rows[j] < 0) {
+                    renumber[j] = -1;
+                    continue;
+                }
+                int state = getState(rows[j]);
+                if (merged[state] < 0) {
+                    merged[state] = count;
+                    rows[count++] = rows[j];
+                }
+                renumber[j] = merged[state];
+            }
+            for (int k = 0; k < runOf.length; k++) {
+                runOf[k] = runOf[k] < 0 ? -1 : renumber[runOf[k]];
+            }
+            rowCount = count;
+        }
+        ByteBuffer rest = input.duplicate();
+        while (i < to && rowCount == 1 && rows[0] >= 0) {
+            if (stop.get()) {
+                return null;
+            }
+            int end = Math.min(to, i + STOP_INTERVAL);
+            rest.limit(end).position(i);
+            rows[0] = run(rows[0], rest);
+            i = end;
+        }
+        int[] ends = new int[starts.length];
+        for (int k = 0; k < ends.length; k++) {
+            ends[k] = runOf[k] < 0 || rowCount == 0 ? -1 : rows[runOf[k]];
+        }
+        return ends;
+    }
+
+    /**
+     * This class represents the runs of a range of chunks of a parallel
+     * match. For every chunk it keeps the start states it was run from and
+     * the state reached from each one.
+     */
+    private final class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer input;
+        private final int[] bounds;
+        private final int firstRow;
+        private final int[] allRows;
+        private final AtomicBoolean stop;
+        private final int from;
+        private final int to;
+
+        // Results indexed by chunk.
+        private final int[][] starts;
+        private final int[][] ends;
+
+        private ChunkTask(ByteBuffer input, int[] bounds, int firstRow,
+                int[] allRows, AtomicBoolean stop, int from, int to) {
+            this(input, bounds, firstRow, allRows, stop, from, to,
+                    new int[bounds.length - 1][], new int[bounds.length - 1][]);
+        }
+
+        private ChunkTask(ByteBuffer input, int[] bounds, int firstRow,
+                int[] allRows, AtomicBoolean stop, int from, int to,
+                int[][] starts, int[][] ends) {
+            this.input = input;
+            this.bounds = bounds;
+            this.firstRow = firstRow;
+            this.allRows = allRows;
+            this.stop = stop;
+            this.from = from;
+            this.to = to;
+            this.starts = starts;
+            this.ends = ends;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ChunkTask(input, bounds, firstRow, allRows,
+                        stop, from, middle, starts, ends),
+                        new ChunkTask(input, bounds, firstRow, allRows,
+                                stop, middle, to, starts, ends));
+                return;
+            }
+            int[] chunkStarts;
+            if (from == 0) {
+                chunkStarts = new int[]{firstRow};
+            } else if (allRows != null) {
+                chunkStarts = allRows;
+            } else {
+                // Guess by running the bytes before the chunk from the
+                // initial state.
+                ByteBuffer before = input.duplicate();
+                before.limit(bounds[from]).position(
+                        Math.max(bounds[0], bounds[from] - LOOKBACK));
+                int guess = run(initialRow, before);
+                chunkStarts = new int[]{guess < 0 ? initialRow : guess};
+            }
+            starts[from] = chunkStarts;
+            ends[from] = runAll(input, bounds[from], bounds[from + 1],
+                    chunkStarts, stop);
+            // The first chunk is run from the known state, so if it fails
+            // the whole match fails.
+            if (from == 0 && ends[from] != null && ends[from][0] < 0) {
+                stop.set(true);
+            }
+        }
+    }
+
+    /**
+     * Get the number of states of the table.
+     *
+     * @return number of states.
+     */
+    public int getStateCount() {
+        return accepting.length;
+    }
+
+    /**
+     * Write the binary form of the matcher, which MappedDFAMatcher reads
+     * without copying it.
+     *
+     * @param output a writable channel; it is not closed.
+     * @throws IOException if the channel cannot be written.
+     */
+    public void write(WritableByteChannel output) throws IOException {
+        int stateCount = accepting.length;
+        int acceptLength = (stateCount + 31) >>> 5;
+        // A compressed table is written with its check array and row
+        // offsets, as the next version.
+        int extraLength = check == null ? 0 : check.length + stateCount;
+        ByteBuffer buffer = ByteBuffer.allocate(4 * (MappedDFAMatcher.HEADER_INTS
+                + charMap.length + table.length + extraLength + acceptLength));
+        IntBuffer ints = buffer.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        ints.put(MappedDFAMatcher.MAGIC)
+                .put(check == null ? MappedDFAMatcher.VERSION
+                        : MappedDFAMatcher.VERSION_COMPRESSED)
+                .put(charMap.length).put(columns).put(stateCount).put(initialRow)
+                .put(check == null ? 0 : table.length).put(0);
+        ints.put(charMap);
+        ints.put(table);
+        if (check != null) {
+            ints.put(check);
+            ints.put(rowOffsets);
+        }
+        int[] bits = new int[acceptLength];
+        for (int state = 0; state < stateCount; state++) {
+            if (accepting[state]) {
+                bits[state >>> 5] |= 1 << state;
+            }
+        }
+        ints.put(bits);
+        while (buffer.hasRemaining()) {
+            output.write(buffer);
+        }
+    }
+
+    /**
+     * Write the binary form of the matcher into a file, replacing it.
+     *
+     * @param file path of a file.
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel);
+        }
+    }
+
+    /**
+     * Estimate the memory used by the matcher.
+     *
+     * @return estimated bytes.
+     */
+    long getMemoryBytes() {
+        // Arrays have a header of about 16 bytes.
+        long bytes = 64 + 16 + 4L * charMap.length + 16 + 4L * table.length
+                + 16 + accepting.length;
+        if (check != null) {
+            bytes += 16 + 4L * check.length + 16 + 4L * rowOffsets.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Give a string representation of the matcher.
+     *
+     * @return a string.
+     */
+    @Override
+    public String toString() {
+        return "DFAMatcher: " + accepting.length + " states, "
+                + columns + " columns" + (check == null ? ""
+                        : ", compressed to " + table.length + " entries");
+    }
+}
@@ -5,28 +5,63 @@
  */
 package kleenstheorem;
 
-import java.util.TreeSet;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 /**
- * This class represents a finite automaton.
+ * This class represents a finite automaton. States are integers numbered
+ * from zero. Their descriptions are only kept in a side table for display.
  *
  * @author ThienDinh
  */
 public abstract class FiniteAutomaton {
 
+    // Number of state ids given out. A removed state keeps its id.
+    protected int stateIdCount;
+
     // State set
-    protected TreeSet<State> stateSet;
+    protected BitSet stateSet;
 
     // Initial state
-    protected State initialState;
+    protected int initialState;
 
     // Final state set
-    protected TreeSet<State> finalStateSet;
+    protected BitSet finalStateSet;
+
+    // Relation transitions, kept as parallel arrays.
+    protected int transitionCount;
+    protected int[] transFrom;
+    protected String[] transLabel;
+    protected int[] transTo;
+
+    // Descriptions of states for display. A state without a description
+    // is shown by its id plus one.
+    protected String[] descriptions;
+
+    // Sets of states of another machine that the states stand for, by id,
+    // and the descriptions of that machine's states, or null. A state of a
+    // set is described by its set when first asked for.
+    private long[][] memberSets;
+    private String[] memberDescriptions;
+
+    // Indexes of the transitions going out of and coming into each state,
+    // and of the first transition between two states. They are built by the
+    // first lookup and kept up to date from then on; null until then.
+    private int[][] outTransitions;
+    private int[] outDegree;
+    private int[][] inTransitions;
+    private int[] inDegree;
+    private HashMap<Long, Integer> pairIndex;
+
+    // Id of each description, built by the first lookup; null until then.
+    private HashMap<String, Integer> stateIds;
 
-    // Relation transition for NFA
-    protected TreeSet<Transition> transitionList;
+    // Pattern the machine was built from, for PipelineMetrics; null if it
+    // is not known.
+    String pattern;
 
     /**
      * Constructor for a finite automaton.
@@ -39,10 +74,21 @@ public abstract class FiniteAutomaton {
     public FiniteAutomaton(TreeSet<State> stateSet,
             State initialState, TreeSet<State> finalStateSet,
             TreeSet<Transition> transitionList) {
-        this.stateSet = (TreeSet<State>) stateSet.clone();
-        this.initialState = initialState;
-        this.finalStateSet = (TreeSet<State>) finalStateSet.clone();
-        this.transitionList = (TreeSet<Transition>) transitionList.clone();
+        this(0, 0, new BitSet(), null);
+        // Give every state an id, including those only named by transitions.
+        TreeMap<State, Integer> stateIds = new TreeMap<>();
+        for (State state : stateSet) {
+            stateIds.put(state, addState(state.getDescription()));
+        }
+        this.initialState = internState(stateIds, initialState);
+        for (State state : finalStateSet) {
+            this.finalStateSet.set(internState(stateIds, state));
+        }
+        for (Transition trans : transitionList) {
+            addTransition(internState(stateIds, trans.getFromState()),
+                    trans.getTransition(),
+                    internState(stateIds, trans.getToState()));
+        }
     }
 
     /**
@@ -51,44 +97,306 @@ public abstract class FiniteAutomaton {
      * @param otherFA other automaton.
      */
     public FiniteAutomaton(FiniteAutomaton otherFA) {
-        stateSet = (TreeSet<State>) otherFA.stateSet.clone();
+        stateIdCount = otherFA.stateIdCount;
+        stateSet = (BitSet) otherFA.stateSet.clone();
         initialState = otherFA.initialState;
-        finalStateSet = (TreeSet<State>) otherFA.finalStateSet.clone();
-        transitionList = (TreeSet<Transition>) otherFA.transitionList.clone();
+        finalStateSet = (BitSet) otherFA.finalStateSet.clone();
+        transitionCount = otherFA.transitionCount;
+        transFrom = otherFA.transFrom.clone();
+        transLabel = otherFA.transLabel.clone();
+        transTo = otherFA.transTo.clone();
+        descriptions = otherFA.descriptions == null
+                ? null : otherFA.descriptions.clone();
+        memberSets = otherFA.memberSets;
+        memberDescriptions = otherFA.memberDescriptions;
+        pattern = otherFA.pattern;
+    }
+
+    /**
+     * Estimate the memory used by the machine: its transitions, sets and
+     * descriptions. Labels are counted once per transition.
+     *
+     * @return estimated bytes.
+     */
+    long getRetainedBytes() {
+        // Arrays and objects have a header of about 16 bytes; a string
+        // takes about 40 bytes plus its characters.
+        long bytes = 64 + 3 * 16 + 16L * transFrom.length
+                + 2 * (32 + stateIdCount / 8);
+        for (int i = 0; i < transitionCount; i++) {
+            bytes += 40 + transLabel[i].length();
+        }
+        if (descriptions != null) {
+            bytes += 16 + 8L * descriptions.length;
+            for (String description : descriptions) {
+                if (description != null) {
+                    bytes += 40 + description.length();
+                }
+            }
+        }
+        if (memberSets != null) {
+            bytes += 16 + 8L * memberSets.length;
+            for (long[] set : memberSets) {
+                bytes += 16 + 8L * set.length;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * End the measuring of the stage that made this machine.
+     *
+     * @param recording the recording of the stage, or null.
+     * @param stage check with PipelineStage.LAMBDA_NFA, NFA and DFA.
+     * @param peakSubsetSize most NFA states in one DFA state, or 0.
+     */
+    void endStage(PipelineMetrics.Recording recording, int stage,
+            int peakSubsetSize) {
+        if (recording != null) {
+            recording.end(stage, pattern, stateSet.cardinality(),
+                    transitionCount, peakSubsetSize, getRetainedBytes());
+        }
+    }
+
+    /**
+     * Constructor for a finite automaton of numbered states and no
+     * transitions.
+     *
+     * @param stateIdCount number of states.
+     * @param initialState an initial state.
+     * @param finalStateSet a final state set.
+     * @param descriptions descriptions of states, or null.
+     */
+    FiniteAutomaton(int stateIdCount, int initialState,
+            BitSet finalStateSet, String[] descriptions) {
+        this.stateIdCount = stateIdCount;
+        this.stateSet = new BitSet(stateIdCount);
+        this.stateSet.set(0, stateIdCount);
+        this.initialState = initialState;
+        this.finalStateSet = (BitSet) finalStateSet.clone();
+        this.transFrom = new int[8];
+        this.transLabel = new String[8];
+        this.transTo = new int[8];
+        this.descriptions = descriptions == null ? null : descriptions.clone();
+    }
+
+    /**
+     * Get the id of a state, giving it a new id if it has none. A state
+     * given a new id here is not put into the state set.
+     *
+     * @param stateIds ids of the states seen so far.
+     * @param state a state.
+     * @return id of the state.
+     */
+    private int internState(TreeMap<State, Integer> stateIds, State state) {
+        Integer id = stateIds.get(state);
+        if (id == null) {
+            id = addState(state.getDescription());
+            stateSet.clear(id);
+            stateIds.put(state, id);
+        }
+        return id;
+    }
+
+    /**
+     * Add a new state into the state set.
+     *
+     * @param description a description, or null for a numbered state.
+     * @return id of the new state.
+     */
+    protected int addState(String description) {
+        int id = stateIdCount++;
+        stateSet.set(id);
+        if (description != null || descriptions != null) {
+            if (descriptions == null) {
+                descriptions = new String[Math.max(8, stateIdCount)];
+            } else if (id >= descriptions.length) {
+                descriptions = Arrays.copyOf(descriptions,
+                        Math.max(id + 1, descriptions.length * 2));
+            }
+            descriptions[id] = description;
+        }
+        if (outTransitions != null && id >= outTransitions.length) {
+            int capacity = Math.max(id + 1, outTransitions.length * 2);
+            outTransitions = Arrays.copyOf(outTransitions, capacity);
+            outDegree = Arrays.copyOf(outDegree, capacity);
+            inTransitions = Arrays.copyOf(inTransitions, capacity);
+            inDegree = Arrays.copyOf(inDegree, capacity);
+        }
+        if (stateIds != null && !stateIds.containsKey(getDescription(id))) {
+            stateIds.put(getDescription(id), id);
+        }
+        return id;
+    }
+
+    /**
+     * Get the description of a state.
+     *
+     * @param state id of a state.
+     * @return a description.
+     */
+    public String getDescription(int state) {
+        if (descriptions != null && state < descriptions.length
+                && descriptions[state] != null) {
+            return descriptions[state];
+        }
+        if (memberSets != null && state < memberSets.length) {
+            if (descriptions == null) {
+                descriptions = new String[Math.max(8, stateIdCount)];
+            } else if (state >= descriptions.length) {
+                descriptions = Arrays.copyOf(descriptions,
+                        Math.max(state + 1, stateIdCount));
+            }
+            descriptions[state] = describeSet(memberSets[state]);
+            return descriptions[state];
+        }
+        return String.valueOf(state + 1);
+    }
+
+    /**
+     * Make the states stand for sets of states of another machine. A state
+     * without a description is then described by its set, the way a TreeSet
+     * of the states of the set is printed.
+     *
+     * @param memberSets bitsets of the states of the other machine, by id.
+     * They must not be changed.
+     * @param members the other machine.
+     */
+    void setMemberSets(long[][] memberSets, FiniteAutomaton members) {
+        this.memberSets = memberSets;
+        this.memberDescriptions = members.descriptions == null
+                ? null : members.descriptions.clone();
+    }
+
+    /**
+     * Get the sets of states of another machine that the states stand for.
+     * They must not be changed.
+     *
+     * @return bitsets of states by id, or null if there are none.
+     */
+    long[][] getMemberSets() {
+        return memberSets;
+    }
+
+    /**
+     * Describe a set of states of the other machine the way a TreeSet of
+     * them is printed.
+     *
+     * @param set a bitset of state ids.
+     * @return a description such as [1, 10, 2].
+     */
+    private String describeSet(long[] set) {
+        int count = 0;
+        for (long word : set) {
+            count += Long.bitCount(word);
+        }
+        String[] members = new String[count];
+        count = 0;
+        for (int w = 0; w < set.length; w++) {
+            for (long word = set[w]; word != 0; word &= word - 1) {
+                int member = (w << 6) + Long.numberOfTrailingZeros(word);
+                members[count++] = memberDescriptions != null
+                        && member < memberDescriptions.length
+                        && memberDescriptions[member] != null
+                        ? memberDescriptions[member] : String.valueOf(member + 1);
+            }
+        }
+        Arrays.sort(members);
+        return Arrays.toString(members);
+    }
+
+    /**
+     * Get a state by its id.
+     *
+     * @param state id of a state.
+     * @return a state.
+     */
+    public State getState(int state) {
+        return new State(getDescription(state));
     }
 
      /**
      * Update a state in the finite automaton. It will also update transitions.
+     * If another state already has the new description, the two states are
+     * merged.
      *
      * @param oldState an old state.
      * @param newState a new state.
      */
     public void updateState(State oldState, State newState) {
-        // Make change in state set.
-        for (State state: stateSet) {
-            if (state.equals(oldState)) {
-                state.setDescription(newState.getDescription());
+        int oldId = lookUpStateId(oldState.getDescription());
+        if (oldId < 0) {
+            return;
+        }
+        int newId = lookUpStateId(newState.getDescription());
+        if (newId < 0) {
+            if (descriptions == null) {
+                descriptions = new String[Math.max(8, stateIdCount)];
             }
+            descriptions[oldId] = newState.getDescription();
+            stateIds.remove(oldState.getDescription());
+            stateIds.put(newState.getDescription(), oldId);
+            return;
         }
-        // Make change in initial state.
-        if (initialState.equals(oldState)) {
-            initialState.setDescription(newState.getDescription());
+        if (newId == oldId) {
+            return;
         }
-        // Make change in final state set.
-        for (State state : finalStateSet) {
-            if (state.equals(oldState)) {
-                state.setDescription(newState.getDescription());
+        // Merge the old state into the existing one. Only the transitions
+        // that touch the old state are visited; a loop is visited once.
+        ensureIndex();
+        int[] moved = new int[outDegree[oldId] + inDegree[oldId]];
+        int movedCount = 0;
+        for (int k = 0; k < outDegree[oldId]; k++) {
+            moved[movedCount++] = outTransitions[oldId][k];
+        }
+        for (int k = 0; k < inDegree[oldId]; k++) {
+            if (transFrom[inTransitions[oldId][k]] != oldId) {
+                moved[movedCount++] = inTransitions[oldId][k];
             }
         }
-        // Make change in transition list.
-        for (Transition trans: transitionList) {
-            if (trans.getFromState().equals(oldState)) {
-                trans.getFromState().setDescription(newState.getDescription());
+        for (int k = 0; k < movedCount; k++) {
+            unindexTransition(moved[k]);
+            if (transFrom[moved[k]] == oldId) {
+                transFrom[moved[k]] = newId;
             }
-            if (trans.getToState().equals(oldState)) {
-                trans.getToState().setDescription(newState.getDescription());
+            if (transTo[moved[k]] == oldId) {
+                transTo[moved[k]] = newId;
             }
         }
+        for (int k = 0; k < movedCount; k++) {
+            indexTransition(moved[k]);
+        }
+        if (initialState == oldId) {
+            initialState = newId;
+        }
+        if (finalStateSet.get(oldId)) {
+            finalStateSet.clear(oldId);
+            finalStateSet.set(newId);
+        }
+        stateSet.clear(oldId);
+    }
+
+    /**
+     * Add a transition into the finite automaton.
+     *
+     * @param fromState id of a state.
+     * @param expr a regular expression move.
+     * @param toState id of another state.
+     */
+    public void addTransition(int fromState, String expr, int toState) {
+        if (transitionCount == transFrom.length) {
+            int capacity = transitionCount * 2;
+            transFrom = Arrays.copyOf(transFrom, capacity);
+            transLabel = Arrays.copyOf(transLabel, capacity);
+            transTo = Arrays.copyOf(transTo, capacity);
+        }
+        transFrom[transitionCount] = fromState;
+        transLabel[transitionCount] = expr;
+        transTo[transitionCount] = toState;
+        transitionCount++;
+        if (outTransitions != null) {
+            indexTransition(transitionCount - 1);
+        }
     }
 
     /**
@@ -99,8 +407,188 @@ public abstract class FiniteAutomaton {
      * @param toState another state in NFA.
      */
     public void addTransition(State fromState, String expr, State toState) {
-        Transition relTrans = new Transition(fromState, expr, toState);
-        transitionList.add(relTrans);
+        int fromId = lookUpStateId(fromState.getDescription());
+        if (fromId < 0) {
+            fromId = addState(fromState.getDescription());
+        }
+        int toId = lookUpStateId(toState.getDescription());
+        if (toId < 0) {
+            toId = addState(toState.getDescription());
+        }
+        // A transition is only added once.
+        ensureIndex();
+        for (int k = 0; k < outDegree[fromId]; k++) {
+            int i = outTransitions[fromId][k];
+            if (transTo[i] == toId && transLabel[i].equals(expr)) {
+                return;
+            }
+        }
+        addTransition(fromId, expr, toId);
+    }
+
+    /**
+     * Remove a transition. The last transition takes its index.
+     *
+     * @param index index of the transition.
+     */
+    protected void removeTransition(int index) {
+        boolean indexed = outTransitions != null;
+        if (indexed) {
+            unindexTransition(index);
+        }
+        transitionCount--;
+        if (index != transitionCount) {
+            if (indexed) {
+                unindexTransition(transitionCount);
+            }
+            transFrom[index] = transFrom[transitionCount];
+            transLabel[index] = transLabel[transitionCount];
+            transTo[index] = transTo[transitionCount];
+            if (indexed) {
+                indexTransition(index);
+            }
+        }
+        transLabel[transitionCount] = null;
+    }
+
+    /**
+     * Build the adjacency indexes if they are not built yet.
+     */
+    private void ensureIndex() {
+        if (outTransitions != null) {
+            return;
+        }
+        int capacity = Math.max(8, stateIdCount);
+        outTransitions = new int[capacity][];
+        outDegree = new int[capacity];
+        inTransitions = new int[capacity][];
+        inDegree = new int[capacity];
+        pairIndex = new HashMap<>();
+        for (int i = 0; i < transitionCount; i++) {
+            indexTransition(i);
+        }
+    }
+
+    /**
+     * Get the key of a pair of states in the pair index.
+     *
+     * @param fromState id of a state.
+     * @param toState id of a state.
+     * @return a key.
+     */
+    private static Long pairKey(int fromState, int toState) {
+        return ((long) fromState << 32) | (toState & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Put a transition into the adjacency indexes.
+     *
+     * @param index index of the transition.
+     */
+    private void indexTransition(int index) {
+        int from = transFrom[index];
+        int to = transTo[index];
+        outTransitions[from] = append(outTransitions[from], outDegree[from]++, index);
+        inTransitions[to] = append(inTransitions[to], inDegree[to]++, index);
+        Long pair = pairKey(from, to);
+        Integer first = pairIndex.get(pair);
+        if (first == null || index < first) {
+            pairIndex.put(pair, index);
+        }
+    }
+
+    /**
+     * Take a transition out of the adjacency indexes.
+     *
+     * @param index index of the transition.
+     */
+    private void unindexTransition(int index) {
+        int from = transFrom[index];
+        int to = transTo[index];
+        outDegree[from] = remove(outTransitions[from], outDegree[from], index);
+        inDegree[to] = remove(inTransitions[to], inDegree[to], index);
+        Long pair = pairKey(from, to);
+        if (pairIndex.get(pair) == index) {
+            // Another transition between the two states becomes the first.
+            int first = -1;
+            for (int k = 0; k < outDegree[from]; k++) {
+                int i = outTransitions[from][k];
+                if (transTo[i] == to && (first < 0 || i < first)) {
+                    first = i;
+                }
+            }
+            if (first < 0) {
+                pairIndex.remove(pair);
+            } else {
+                pairIndex.put(pair, first);
+            }
+        }
+    }
+
+    /**
+     * Append a transition to a list, growing it if it is full.
+     *
+     * @param list a list of transitions, or null if it is empty.
+     * @param size number of transitions in the list.
+     * @param index index of the transition.
+     * @return the list.
+     */
+    private static int[] append(int[] list, int size, int index) {
+        if (list == null) {
+            list = new int[4];
+        } else if (size == list.length) {
+            list = Arrays.copyOf(list, size * 2);
+        }
+        list[size] = index;
+        return list;
+    }
+
+    /**
+     * Remove a transition from a list. The last one takes its place.
+     *
+     * @param list a list of transitions.
+     * @param size number of transitions in the list.
+     * @param index index of the transition.
+     * @return the new number of transitions in the list.
+     */
+    private static int remove(int[] list, int size, int index) {
+        for (int k = 0; k < size; k++) {
+            if (list[k] == index) {
+                list[k] = list[size - 1];
+                return size - 1;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get all states that go in a state.
+     *
+     * @param toState id of a state.
+     * @return ids of the states that go to this state.
+     */
+    public BitSet getStatesGoIn(int toState) {
+        ensureIndex();
+        BitSet states = new BitSet();
+        for (int k = 0; k < inDegree[toState]; k++) {
+            states.set(transFrom[inTransitions[toState][k]]);
+        }
+        return states;
+    }
+
+    /**
+     * Get all states that go out a state.
+     *
+     * @param fromState id of a state.
+     * @return ids of the states that go out from this state.
+     */
+    public BitSet getStatesGoOut(int fromState) {
+        ensureIndex();
+        BitSet states = new BitSet();
+        for (int k = 0; k < outDegree[fromState]; k++) {
+            states.set(transTo[outTransitions[fromState][k]]);
+        }
+        return states;
     }
 
     /**
@@ -110,15 +598,8 @@ public abstract class FiniteAutomaton {
      * @return list of states that go to this state.
      */
     public TreeSet<State> getStatesGoIn(State toState) {
-        TreeSet<State> listOfStates = new TreeSet<>();
-        Iterator<Transition> iter = transitionList.iterator();
-        while (iter.hasNext()) {
-            Transition trans = iter.next();
-            if (trans.getToState().equals(toState)) {
-                listOfStates.add(trans.getFromState());
-            }
-        }
-        return listOfStates;
+        int id = lookUpStateId(toState.getDescription());
+        return id < 0 ? new TreeSet<State>() : toStates(getStatesGoIn(id));
     }
 
     /**
@@ -128,15 +609,21 @@ public abstract class FiniteAutomaton {
      * @return list of states that go out from this state.
      */
     public TreeSet<State> getStatesGoOut(State fromState) {
-        TreeSet<State> listOfStates = new TreeSet<>();
-        Iterator<Transition> iter = transitionList.iterator();
-        while (iter.hasNext()) {
-            Transition trans = iter.next();
-            if (trans.getFromState().equals(fromState)) {
-                listOfStates.add(trans.getToState());
-            }
-        }
-        return listOfStates;
+        int id = lookUpStateId(fromState.getDescription());
+        return id < 0 ? new TreeSet<State>() : toStates(getStatesGoOut(id));
+    }
+
+    /**
+     * Look up a transition between two states.
+     *
+     * @param fromState id of a state.
+     * @param toState id of a state.
+     * @return index of the first transition, or -1 if there is none.
+     */
+    public int indexOfTransition(int fromState, int toState) {
+        ensureIndex();
+        Integer index = pairIndex.get(pairKey(fromState, toState));
+        return index == null ? -1 : index;
     }
 
     /**
@@ -147,13 +634,47 @@ public abstract class FiniteAutomaton {
      * @return a relation transition.
      */
     public Transition lookUpTransition(State fromState, State toState) {
-        for (Transition relTrans: transitionList) {
-            if (relTrans.getFromState().equals(fromState)
-                    && relTrans.getToState().equals(toState)) {
-                return relTrans;
+        int index = indexOfTransition(lookUpStateId(fromState.getDescription()),
+                lookUpStateId(toState.getDescription()));
+        return index < 0 ? null : getTransition(index);
+    }
+
+    /**
+     * Get a transition by its index.
+     *
+     * @param index index of a transition.
+     * @return a relation transition.
+     */
+    public Transition getTransition(int index) {
+        return new Transition(getState(transFrom[index]), transLabel[index],
+                getState(transTo[index]));
+    }
+
+    /**
+     * Get the number of states.
+     *
+     * @return number of states.
+     */
+    public int getStateCount() {
+        return stateSet.cardinality();
+    }
+
+    /**
+     * Get the id of a state by its description.
+     *
+     * @param stateDescription a description of the searching state.
+     * @return id of the matching state or -1 if none is found.
+     */
+    public int lookUpStateId(String stateDescription) {
+        if (stateIds == null) {
+            stateIds = new HashMap<>();
+            // The smallest id wins if descriptions repeat.
+            for (int id = stateIdCount - 1; id >= 0; id--) {
+                stateIds.put(getDescription(id), id);
             }
         }
-        return null;
+        Integer id = stateIds.get(stateDescription);
+        return id == null ? -1 : id;
     }
 
     /**
@@ -163,14 +684,64 @@ public abstract class FiniteAutomaton {
      * @return a matching state or null if none is found.
      */
     public State lookUpState(String stateDescription) {
-        for (State aState: stateSet) {
-            if (aState.getDescription().equals(stateDescription)) {
-                return aState;
-            }
+        int id = lookUpStateId(stateDescription);
+        return id < 0 || !stateSet.get(id) ? null : getState(id);
+    }
+
+    /**
+     * Get the state set.
+     *
+     * @return a state set.
+     */
+    public TreeSet<State> getStateSet() {
+        return toStates(stateSet);
+    }
+
+    /**
+     * Get the initial state.
+     *
+     * @return the initial state.
+     */
+    public State getInitialState() {
+        return getState(initialState);
+    }
+
+    /**
+     * Get the final state set.
+     *
+     * @return a final state set.
+     */
+    public TreeSet<State> getFinalStateSet() {
+        return toStates(finalStateSet);
+    }
+
+    /**
+     * Get the transition list.
+     *
+     * @return a transition list.
+     */
+    public TreeSet<Transition> getTransitionList() {
+        TreeSet<Transition> transitionList = new TreeSet<>();
+        for (int i = 0; i < transitionCount; i++) {
+            transitionList.add(getTransition(i));
         }
-        return null;
+        return transitionList;
     }
-    
+
+    /**
+     * Get the states of a set of ids ordered by their descriptions.
+     *
+     * @param ids a set of state ids.
+     * @return a set of states.
+     */
+    private TreeSet<State> toStates(BitSet ids) {
+        TreeSet<State> states = new TreeSet<>();
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            states.add(getState(id));
+        }
+        return states;
+    }
+
     private String formatStateSet(String stateString){
         return stateString
                 .replace("[]", "∅")
@@ -184,10 +755,10 @@ public abstract class FiniteAutomaton {
      * @return a string.
      */
     public String toString() {
-        return "State set: " + formatStateSet(stateSet.toString())
-                + "\nInitial state: " + formatStateSet(initialState.toString())
-                + "\nFinal state set: " + formatStateSet(finalStateSet.toString())
-                + "\nRelation transitions: " + formatStateSet(transitionList.toString());
+        return "State set: " + formatStateSet(getStateSet().toString())
+                + "\nInitial state: " + formatStateSet(getInitialState().toString())
+                + "\nFinal state set: " + formatStateSet(getFinalStateSet().toString())
+                + "\nRelation transitions: " + formatStateSet(getTransitionList().toString());
     }
 
 }
@@ -0,0 +1,193 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kleenstheorem;
+
+import java.util.ArrayDeque;
+
+/**
+ * This class represents the label of a transition during state elimination.
+ * Labels are nodes of a shared graph instead of strings, so a label that is
+ * used by many transitions is kept once. Nodes are made through a
+ * StateEliminator, which returns the same node for the same children, so two
+ * nodes are equal exactly when they are the same object.
+ *
+ * The text of a node is the string the elimination used to build: a path is
+ * the label going in, in parentheses if it has a union, then the loop under
+ * a star, then the label going out, in parentheses if it has a union.
+ *
+ * @author ThienDinh
+ */
+final class LabelNode {
+
+    // Kinds of nodes.
+    static final int LAMBDA = 0;
+    static final int TEXT = 1;
+    static final int UNION = 2;
+    static final int PATH = 3;
+
+    // Kind of this node.
+    private final int type;
+
+    // Text of a TEXT node.
+    private final String text;
+
+    // Children: both parts of a union, or the label going in, the loop (null
+    // if there is none) and the label going out of a path.
+    private final LabelNode first;
+    private final LabelNode loop;
+    private final LabelNode second;
+
+    // Whether the text has a '+'.
+    private final boolean union;
+
+    // Length of the text.
+    private final long length;
+
+    // Cached hash code.
+    private final int hash;
+
+    /**
+     * Constructor for a LabelNode.
+     *
+     * @param type kind of the node.
+     * @param text text of a TEXT node, or null.
+     * @param first first child, or null.
+     * @param loop loop of a path, or null.
+     * @param second second child, or null.
+     */
+    LabelNode(int type, String text, LabelNode first, LabelNode loop,
+            LabelNode second) {
+        this.type = type;
+        this.text = text;
+        this.first = first;
+        this.loop = loop;
+        this.second = second;
+        switch (type) {
+            case LAMBDA:
+                union = false;
+                length = 0;
+                break;
+            case TEXT:
+                union = text.contains("+");
+                length = text.length();
+                break;
+            case UNION:
+                union = true;
+                length = first.length + 3 + second.length;
+                break;
+            default:
+                union = first.union || second.union
+                        || (loop != null && loop.union);
+                length = first.groupedLength() + second.groupedLength()
+                        + (loop == null ? 0 : loop.length + 3);
+                break;
+        }
+        int h = type;
+        h = 31 * h + (text == null ? 0 : text.hashCode());
+        h = 31 * h + System.identityHashCode(first);
+        h = 31 * h + System.identityHashCode(loop);
+        h = 31 * h + System.identityHashCode(second);
+        this.hash = h;
+    }
+
+    /**
+     * Get the length of the text, without making it.
+     *
+     * @return number of characters.
+     */
+    long getLength() {
+        return length;
+    }
+
+    /**
+     * Get the length of the text as part of a concatenation.
+     *
+     * @return number of characters, parentheses included.
+     */
+    private long groupedLength() {
+        return union ? length + 2 : length;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof LabelNode)) {
+            return false;
+        }
+        LabelNode other = (LabelNode) obj;
+        // Children are shared, so they are compared by identity.
+        return type == other.type && first == other.first
+                && loop == other.loop && second == other.second
+                && (text == null ? other.text == null : text.equals(other.text));
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * Get the text of this label. A node shared by many others is written
+     * every time it is used; the graph is walked with an explicit stack.
+     *
+     * @return a regular expression.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        // Nodes to write, or strings between them.
+        ArrayDeque<Object> openList = new ArrayDeque<>();
+        openList.push(this);
+        while (!openList.isEmpty()) {
+            Object item = openList.pop();
+            if (item instanceof String) {
+                sb.append((String) item);
+                continue;
+            }
+            LabelNode node = (LabelNode) item;
+            switch (node.type) {
+                case LAMBDA:
+                    break;
+                case TEXT:
+                    sb.append(node.text);
+                    break;
+                case UNION:
+                    openList.push(node.second);
+                    openList.push(" + ");
+                    openList.push(node.first);
+                    break;
+                default:
+                    pushGrouped(openList, node.second);
+                    if (node.loop != null) {
+                        openList.push(")*");
+                        openList.push(node.loop);
+                        openList.push("(");
+                    }
+                    pushGrouped(openList, node.first);
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Push a node to write, in parentheses if it has a union.
+     *
+     * @param openList nodes to write.
+     * @param node a node.
+     */
+    private static void pushGrouped(ArrayDeque<Object> openList, LabelNode node) {
+        if (node.union) {
+            openList.push(")");
+            openList.push(node);
+            openList.push("(");
+        } else {
+            openList.push(node);
+        }
+    }
+}
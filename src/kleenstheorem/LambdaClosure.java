@@ -0,0 +1,376 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kleenstheorem;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class represents the lambda closures of the states of a machine, that
+ * is the states each one reaches by lambda moves, itself included. States
+ * that reach each other by lambda moves have the same closure, so the
+ * strongly connected components of the lambda moves are found first (Tarjan)
+ * and one bitset is made per component. Components are done in reverse
+ * topological order, each one being the union of its states and of the
+ * closures of the components it moves to.
+ *
+ * Components at the same distance from the sinks do not depend on each
+ * other, so with a ForkJoinPool they are done in parallel, one level after
+ * another.
+ *
+ * @author ThienDinh
+ */
+final class LambdaClosure {
+
+    // Fewest components in a level worth splitting across threads.
+    private static final int PARALLEL_THRESHOLD = 1024;
+
+    // Number of states.
+    private final int size;
+
+    // Number of words of a set of states.
+    private final int words;
+
+    // Lambda moves indexed by their beginning state.
+    private final int[] lambdaStart;
+    private final int[] lambdaTo;
+
+    // Component of each state.
+    private final int[] component;
+
+    // States of each component.
+    private final int[] memberStart;
+    private final int[] members;
+
+    // Closure of each component.
+    private final long[][] closures;
+
+    /**
+     * Constructor for LambdaClosure. Transitions labelled by the empty string
+     * are lambda moves.
+     *
+     * @param automaton a finite automaton.
+     * @param pool a pool to share the work, or null to work on this thread.
+     */
+    LambdaClosure(FiniteAutomaton automaton, ForkJoinPool pool) {
+        this.size = automaton.stateIdCount;
+        this.words = Math.max(1, (size + 63) >>> 6);
+
+        // Index lambda moves by their beginning state.
+        lambdaStart = new int[size + 1];
+        for (int i = 0; i < automaton.transitionCount; i++) {
+            if (automaton.transLabel[i].equals("")) {
+                lambdaStart[automaton.transFrom[i] + 1]++;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            lambdaStart[i + 1] += lambdaStart[i];
+        }
+        lambdaTo = new int[lambdaStart[size]];
+        int[] fill = Arrays.copyOf(lambdaStart, size);
+        for (int i = 0; i < automaton.transitionCount; i++) {
+            if (automaton.transLabel[i].equals("")) {
+                lambdaTo[fill[automaton.transFrom[i]]++] = automaton.transTo[i];
+            }
+        }
+
+        component = new int[size];
+        int componentCount = findComponents();
+
+        // Components are numbered sinks first, so every component moves
+        // only to components of smaller numbers.
+        memberStart = new int[componentCount + 1];
+        for (int state = 0; state < size; state++) {
+            memberStart[component[state] + 1]++;
+        }
+        for (int c = 0; c < componentCount; c++) {
+            memberStart[c + 1] += memberStart[c];
+        }
+        members = new int[size];
+        fill = Arrays.copyOf(memberStart, componentCount);
+        for (int state = 0; state < size; state++) {
+            members[fill[component[state]]++] = state;
+        }
+        closures = new long[componentCount][];
+
+        if (pool == null || componentCount < PARALLEL_THRESHOLD) {
+            for (int c = 0; c < componentCount; c++) {
+                closures[c] = createClosure(c);
+            }
+            return;
+        }
+        // Level of a component: the longest way to a sink.
+        int[] level = new int[componentCount];
+        int levelCount = 0;
+        for (int c = 0; c < componentCount; c++) {
+            for (int j = memberStart[c]; j < memberStart[c + 1]; j++) {
+                int state = members[j];
+                for (int k = lambdaStart[state]; k < lambdaStart[state + 1]; k++) {
+                    int next = component[lambdaTo[k]];
+                    if (next != c) {
+                        level[c] = Math.max(level[c], level[next] + 1);
+                    }
+                }
+            }
+            levelCount = Math.max(levelCount, level[c] + 1);
+        }
+        int[] levelStart = new int[levelCount + 1];
+        for (int c = 0; c < componentCount; c++) {
+            levelStart[level[c] + 1]++;
+        }
+        for (int l = 0; l < levelCount; l++) {
+            levelStart[l + 1] += levelStart[l];
+        }
+        int[] byLevel = new int[componentCount];
+        fill = Arrays.copyOf(levelStart, levelCount);
+        for (int c = 0; c < componentCount; c++) {
+            byLevel[fill[level[c]]++] = c;
+        }
+        for (int l = 0; l < levelCount; l++) {
+            if (levelStart[l + 1] - levelStart[l] < PARALLEL_THRESHOLD) {
+                for (int j = levelStart[l]; j < levelStart[l + 1]; j++) {
+                    closures[byLevel[j]] = createClosure(byLevel[j]);
+                }
+            } else {
+                pool.invoke(new ClosureTask(byLevel, levelStart[l], levelStart[l + 1]));
+            }
+        }
+    }
+
+    /**
+     * Find the strongly connected components of the lambda moves by Tarjan's
+     * algorithm, with an explicit stack instead of recursion.
+     *
+     * @return the number of components.
+     */
+    private int findComponents() {
+        int[] index = new int[size];
+        Arrays.fill(index, -1);
+        int[] low = new int[size];
+        int[] nextMove = new int[size];
+        boolean[] onStack = new boolean[size];
+        int[] stack = new int[size];
+        int stackSize = 0;
+        int[] callStack = new int[size];
+        int callSize = 0;
+        int indexCount = 0;
+        int componentCount = 0;
+        for (int root = 0; root < size; root++) {
+            if (index[root] >= 0) {
+                continue;
+            }
+            index[root] = low[root] = indexCount++;
+            nextMove[root] = lambdaStart[root];
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            callStack[callSize++] = root;
+            while (callSize > 0) {
+                int state = callStack[callSize - 1];
+                if (nextMove[state] < lambdaStart[state + 1]) {
+                    int next = lambdaTo[nextMove[state]++];
+                    if (index[next] < 0) {
+                        index[next] = low[next] = indexCount++;
+                        nextMove[next] = lambdaStart[next];
+                        stack[stackSize++] = next;
+                        onStack[next] = true;
+                        callStack[callSize++] = next;
+                    } else if (onStack[next]) {
+                        low[state] = Math.min(low[state], index[next]);
+                    }
+                    continue;
+                }
+                callSize--;
+                if (callSize > 0) {
+                    int parent = callStack[callSize - 1];
+                    low[parent] = Math.min(low[parent], low[state]);
+                }
+                if (low[state] == index[state]) {
+                    int member;
+                    do {
+                        member = stack[--stackSize];
+                        onStack[member] = false;
+                        component[member] = componentCount;
+                    } while (member != state);
+                    componentCount++;
+                }
+            }
+        }
+        return componentCount;
+    }
+
+    /**
+     * Make the closure of a component from the closures of the components
+     * it moves to.
+     *
+     * @param c a component.
+     * @return its closure.
+     */
+    private long[] createClosure(int c) {
+        long[] closure = new long[words];
+        for (int j = memberStart[c]; j < memberStart[c + 1]; j++) {
+            int state = members[j];
+            closure[state >>> 6] |= 1L << state;
+            for (int k = lambdaStart[state]; k < lambdaStart[state + 1]; k++) {
+                int next = component[lambdaTo[k]];
+                if (next != c) {
+                    long[] nextClosure = closures[next];
+                    for (int w = 0; w < words; w++) {
+                        closure[w] |= nextClosure[w];
+                    }
+                }
+            }
+        }
+        return closure;
+    }
+
+    /**
+     * This class represents the making of the closures of a range of
+     * components of one level.
+     */
+    private final class ClosureTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] order;
+        private final int from;
+        private final int to;
+
+        private ClosureTask(int[] order, int from, int to) {
+            this.order = order;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                for (int j = from; j < to; j++) {
+                    closures[order[j]] = createClosure(order[j]);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ClosureTask(order, from, middle),
+                    new ClosureTask(order, middle, to));
+        }
+    }
+
+    /**
+     * Get the states reached from the closure of every component by every
+     * letter, closure of the reached states included. The moves of a
+     * component are its own letter moves and the moves of the components
+     * it moves to by lambda moves, so components are done sinks first.
+     *
+     * @param automaton the finite automaton of these closures.
+     * @param charMap the column of each letter.
+     * @param columns number of columns.
+     * @return the reached states, indexed by component * columns + column,
+     * null if there is none.
+     */
+    long[][] createSuccessors(FiniteAutomaton automaton, int[] charMap, int columns) {
+        // Index letter moves by their beginning state.
+        int[] letterStart = new int[size + 1];
+        for (int i = 0; i < automaton.transitionCount; i++) {
+            if (!automaton.transLabel[i].equals("")) {
+                letterStart[automaton.transFrom[i] + 1]++;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            letterStart[i + 1] += letterStart[i];
+        }
+        int[] letterMoves = new int[letterStart[size]];
+        int[] fill = Arrays.copyOf(letterStart, size);
+        for (int i = 0; i < automaton.transitionCount; i++) {
+            if (!automaton.transLabel[i].equals("")) {
+                letterMoves[fill[automaton.transFrom[i]]++] = i;
+            }
+        }
+        long[][] successors = new long[closures.length * columns][];
+        for (int c = 0; c < closures.length; c++) {
+            int base = c * columns;
+            for (int j = memberStart[c]; j < memberStart[c + 1]; j++) {
+                int state = members[j];
+                for (int k = letterStart[state]; k < letterStart[state + 1]; k++) {
+                    int i = letterMoves[k];
+                    orInto(successors, base + charMap[automaton.transLabel[i].charAt(0)],
+                            getClosure(automaton.transTo[i]));
+                }
+                for (int k = lambdaStart[state]; k < lambdaStart[state + 1]; k++) {
+                    int next = component[lambdaTo[k]];
+                    if (next == c) {
+                        continue;
+                    }
+                    for (int col = 0; col < columns; col++) {
+                        long[] moves = successors[next * columns + col];
+                        if (moves != null) {
+                            orInto(successors, base + col, moves);
+                        }
+                    }
+                }
+            }
+        }
+        return successors;
+    }
+
+    /**
+     * Add a set of states into an entry of a table of sets.
+     *
+     * @param table a table of sets.
+     * @param key an entry, made if it is null.
+     * @param states a set of states.
+     */
+    private void orInto(long[][] table, int key, long[] states) {
+        long[] set = table[key];
+        if (set == null) {
+            set = new long[words];
+            table[key] = set;
+        }
+        for (int w = 0; w < words; w++) {
+            set[w] |= states[w];
+        }
+    }
+
+    /**
+     * Get the component of a state.
+     *
+     * @param state id of a state.
+     * @return its component.
+     */
+    int getComponent(int state) {
+        return component[state];
+    }
+
+    /**
+     * Get the closure of a state. The bitset is shared by every state of
+     * its component and must not be changed.
+     *
+     * @param state id of a state.
+     * @return the states it reaches by lambda moves, itself included.
+     */
+    long[] getClosure(int state) {
+        return closures[component[state]];
+    }
+
+    /**
+     * Check if the closure of a state has a state of a set.
+     *
+     * @param state id of a state.
+     * @param states a set of states.
+     * @return true if it does; otherwise, false.
+     */
+    boolean intersects(int state, BitSet states) {
+        long[] closure = getClosure(state);
+        for (int other = states.nextSetBit(0); other >= 0;
+                other = states.nextSetBit(other + 1)) {
+            if (other < size && (closure[other >>> 6] & (1L << other)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
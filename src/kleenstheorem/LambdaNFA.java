@@ -5,12 +5,10 @@
  */
 package kleenstheorem;
 
-import java.util.ArrayList;
-import java.util.TreeSet;
 import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.Stack;
+import java.util.BitSet;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * This class represents a lambda NFA.
@@ -38,20 +36,18 @@ public class LambdaNFA extends FiniteAutomaton {
     }
 
     /**
-     * Separate lambda moves into a transitive closure.
+     * Constructor for a LambdaNFA of numbered states and no transitions.
      *
-     * @return a list of lambda moves.
+     * @param stateIdCount number of states.
+     * @param initialState an initial state.
+     * @param finalStateSet a final state set.
+     * @param descriptions descriptions of states, or null.
+     * @param alphabet an alphabet.
      */
-    private TreeSet<Transition> getTransitiveClosure() {
-        TreeSet<Transition> transitiveClosure = new TreeSet<>();
-        int size = transitionList.size();
-        // Separate lambda moves
-        for (Transition trans: transitionList) {
-            if (trans.getTransition().equals("")) {
-                transitiveClosure.add(trans);
-            }
-        }
-        return reconfigureTransitiveClosure(transitiveClosure);
+    LambdaNFA(int stateIdCount, int initialState, BitSet finalStateSet,
+            String[] descriptions, TreeSet<Character> alphabet) {
+        super(stateIdCount, initialState, finalStateSet, descriptions);
+        this.alphabet = (TreeSet<Character>) alphabet.clone();
     }
 
     /**
@@ -64,154 +60,116 @@ public class LambdaNFA extends FiniteAutomaton {
     }
 
     /**
-     * Reconfigure the transitive closure in which new lambda moves are added.
+     * Kill all lambda moves of this LambdaNFA and add the transitions that
+     * replace them into an NFA. A state moves by a letter to the closures
+     * of the states that its closure moves to by that letter. Only the
+     * states reached from the initial state are kept.
      *
-     * @param transClosure original transitive closure.
-     * @return reconfigured transitive closure.
+     * @param closure the lambda closures of the states.
+     * @param nfa an NFA over the same states.
      */
-    private TreeSet<Transition> reconfigureTransitiveClosure(TreeSet<Transition> transClosure) {
-        TreeSet<Transition> reconfigClosure = new TreeSet<>(transClosure);
-        // For each state, do breadth first seach from that state.
-        // For each state after level 1, make new transition
-        Queue<State> openList = new LinkedList<>();
-        ArrayList<State> closedList = new ArrayList<>();
-        for (State originalState: stateSet) {            
-            openList.add(originalState);
-            // For each iteration of the loop, one element of the open list is removed.
-            while (!openList.isEmpty()) {
-                //System.out.println("Open list:" + openList + ", Closed list:" + closedList);
-                State consideringState = openList.remove();
-                // If it's already in the closed list, ignore
-                if (closedList.contains(consideringState)) {
+    private void killLambdaMoves(LambdaClosure closure, NFA nfa) {
+        int[] charMap = DFAMatcher.createCharMap(alphabet);
+        int columns = Math.max(1, alphabet.size());
+        String[] labels = new String[columns];
+        for (Character ch : alphabet) {
+            labels[charMap[ch]] = String.valueOf(ch);
+        }
+        // States of a lambda cycle have the same closure, so they share
+        // their moves.
+        long[][] componentMoves = closure.createSuccessors(this, charMap, columns);
+        long[][] successors = new long[stateIdCount * columns][];
+
+        // Breadth first search from the initial state.
+        BitSet reached = new BitSet(stateIdCount);
+        int[] openList = new int[stateIdCount];
+        int head = 0;
+        int tail = 0;
+        reached.set(initialState);
+        openList[tail++] = initialState;
+        while (head < tail) {
+            int state = openList[head++];
+            int base = closure.getComponent(state) * columns;
+            for (int col = 0; col < columns; col++) {
+                long[] moves = componentMoves[base + col];
+                if (moves == null) {
                     continue;
                 }
-                // Get all state connect to this State from Transitive Closure
-                for (Transition trans: transClosure) {
-                    // 
-                    if (trans.getFromState().equals(consideringState)) {
-                        if (!closedList.contains(trans.getToState())) {
-                            openList.add(trans.getToState());
+                successors[state * columns + col] = moves;
+                for (int w = 0; w < moves.length; w++) {
+                    for (long word = moves[w]; word != 0; word &= word - 1) {
+                        int next = (w << 6) + Long.numberOfTrailingZeros(word);
+                        if (!reached.get(next)) {
+                            reached.set(next);
+                            openList[tail++] = next;
                         }
                     }
                 }
-                closedList.add(consideringState);
             }
+        }
 
-            for (int j = 1; j < closedList.size(); j++) {
-                Transition trans = new Transition(originalState, "", closedList.get(j));
-                if (!reconfigClosure.contains(trans)) {
-                    reconfigClosure.add(trans);
+        for (int state = reached.nextSetBit(0); state >= 0;
+                state = reached.nextSetBit(state + 1)) {
+            for (int col = 0; col < columns; col++) {
+                long[] moves = successors[state * columns + col];
+                if (moves == null) {
+                    continue;
+                }
+                for (int w = 0; w < moves.length; w++) {
+                    for (long word = moves[w]; word != 0; word &= word - 1) {
+                        nfa.addTransition(state, labels[col],
+                                (w << 6) + Long.numberOfTrailingZeros(word));
+                    }
                 }
             }
-            // Clear lists to work with the next state.
-            closedList.clear();
-            openList.clear();
         }
-        return reconfigClosure;
+        nfa.stateSet.and(reached);
+        nfa.finalStateSet.and(reached);
+        nfa.setSuccessors(successors);
     }
 
     /**
-     * Get a list of letter transitions from the lambda NFA.
+     * Convert lambdaNFA to NFA.
      *
-     * @return a list of letter transitions.
+     * @return the converted NFA.
      */
-    private TreeSet<Transition> getLetterTransitions() {
-        TreeSet<Transition> letterTransitions = new TreeSet<>();
-        for (Transition trans : transitionList) {
-            if (!trans.getTransition().equals("")) {
-                letterTransitions.add(trans);
-            }
-        }
-        return letterTransitions;
+    public NFA createNFA() {
+        return createNFA(null);
     }
 
     /**
-     * Kill all lambda moves of this LambdaNFA and return the list of
-     * transitions that does not contain lambda moves.
+     * Convert lambdaNFA to NFA. The lambda closures of a large machine are
+     * computed in parallel on the given pool.
      *
-     * @return a list of transitions.
+     * @param pool a ForkJoinPool, or null to work on this thread.
+     * @return the converted NFA.
      */
-    private TreeSet<Transition> killLambdaMoves() {
-        // Get transitive closure
-        TreeSet<Transition> transitiveClosure = getTransitiveClosure();
-        // Get letter moves
-        TreeSet<Transition> letterMoves = getLetterTransitions();
-        // A list to contain new transitions.
-        TreeSet<Transition> newTransitions = new TreeSet<>();
-        // For each letter move, consider the transitive closure.
-        for (Transition letterTrans : letterMoves) {
-            // Get the transition
-            String transition = letterTrans.getTransition();
-            // Get a set of going in states.
-            TreeSet<State> goingInStates = new TreeSet<>();
-            goingInStates.add(letterTrans.getFromState());
-            for (Transition lambdaTrans : transitiveClosure) {
-                if (lambdaTrans.getToState().equals(letterTrans.getFromState())) {
-                    goingInStates.add(lambdaTrans.getFromState());
-                }
-            }
-            // Get a set of going out states.
-            TreeSet<State> goingOutStates = new TreeSet<>();
-            goingOutStates.add(letterTrans.getToState());
-            for (Transition lambdaTrans : transitiveClosure) {
-                if (lambdaTrans.getFromState().equals(letterTrans.getToState())) {
-                    goingOutStates.add(lambdaTrans.getToState());
-                }
-            }
-            // Create new transition from this letter move.
-            for (State inState : goingInStates) {
-                for (State outState : goingOutStates) {
-                    newTransitions.add(new Transition(inState, transition, outState));
-                }
-            }
+    public NFA createNFA(ForkJoinPool pool) {
+        PipelineMetrics.Recording recording = PipelineMetrics.begin();
+        NFA nfa = new NFA(stateIdCount, initialState, finalStateSet,
+                descriptions, alphabet);
+        nfa.pattern = pattern;
+        nfa.stateSet = (BitSet) stateSet.clone();
+        LambdaClosure closure = new LambdaClosure(this, pool);
+        killLambdaMoves(closure, nfa);
+        // Check if lambda is in the language of the Lambda NFA. If a final
+        // state is in the closure of the initial state, then the initial
+        // state should be in final state set.
+        if (closure.intersects(initialState, finalStateSet)) {
+            nfa.finalStateSet.set(initialState);
         }
-        return newTransitions;
+        nfa.endStage(recording, PipelineStage.NFA, 0);
+        return nfa;
     }
 
     /**
-     * Convert lambdaNFA to NFA.
+     * Create a matcher that simulates this lambda NFA directly on bitsets of
+     * states, without building a DFA.
      *
-     * @return the converted NFA.
+     * @return a BitParallelMatcher.
      */
-    public NFA createNFA() {
-        TreeSet<State> newFinalStateSet = (TreeSet<State>) this.finalStateSet.clone();
-        TreeSet<Transition> transitionList = this.killLambdaMoves();
-        // Check if lambda is in the language of the Lambda NFA.
-        // Perform depth first search.
-        Stack<State> openList = new Stack<>();
-        TreeSet<State> closedList = new TreeSet<>();
-        openList.add(initialState);
-
-        TreeSet<Transition> transClosure = getTransitiveClosure();
-        boolean found = false;
-        while (!openList.empty() && !found) {
-            State examiningState = openList.pop();
-            // Check all transitions of transitive closure that have matching beginning state.
-            for (Transition trans: transClosure) {
-                if (trans.getFromState().equals(examiningState)) {
-                    State state = trans.getToState();
-                    // If the to state is in final state set,
-                    // then the initial state should be in final state set.
-                    if (finalStateSet.contains(state)) {
-                        newFinalStateSet.add(initialState);
-                        found = true;
-                        break;
-                    }
-                    // If the newly discovered state is already in the closed list,
-                    // then we should not add it into open list to avoid recursively loop.
-                    if (!closedList.contains(state)) {
-                        openList.add(state);
-                    }
-
-                }
-            }
-            // Add the examiningState into closed list.
-            closedList.add(examiningState);
-        }
-
-        NFA nfa = new NFA(this.stateSet, this.initialState,
-                newFinalStateSet, transitionList, alphabet);
-        return nfa;
+    public BitParallelMatcher createBitParallelMatcher() {
+        return new BitParallelMatcher(this, alphabet);
     }
 
     /**
@@ -220,9 +178,7 @@ public class LambdaNFA extends FiniteAutomaton {
      * @return a RegNFA.
      */
     public RegNFA createRegNFA() {
-        RegNFA regNFA = new RegNFA(this.stateSet, initialState,
-                this.finalStateSet, this.transitionList);
-        return regNFA;
+        return new RegNFA(this);
     }
 
     /**
@@ -0,0 +1,299 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kleenstheorem;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * This class represents a lazily built DFA over an NFA. A DFA state is a set
+ * of NFA states and is only created when the input reaches it. Created states
+ * and their moves are kept in a cache with a memory limit. When the limit is
+ * reached the whole cache is flushed and the search goes on from the current
+ * set of NFA states, so the memory stays bounded whatever the input is.
+ *
+ * @author ThienDinh
+ */
+public final class LazyDFAMatcher implements AutomatonMatcher {
+
+    // Move that has not been computed yet.
+    private static final int UNKNOWN = -2;
+
+    // Move to the empty set of NFA states.
+    private static final int DEAD = -1;
+
+    // Estimated bytes of a cache entry besides its set and table row.
+    private static final int ENTRY_OVERHEAD = 64;
+
+    // Column of each character of the alphabet, -1 if not in the alphabet.
+    private final int[] charMap;
+
+    // Number of columns.
+    private final int columns;
+
+    // Number of words of a set of NFA states.
+    private final int words;
+
+    // NFA states reached from a state by a column, indexed by
+    // state * columns + column, null if there is none.
+    private final long[][] nfaMasks;
+
+    // Final states of the NFA.
+    private final long[] nfaFinals;
+
+    // Initial state of the NFA.
+    private final int nfaInitial;
+
+    // Limit of the estimated cache size in bytes.
+    private final long maxCacheBytes;
+
+    // Cached DFA states.
+    private HashMap<Subset, Integer> stateIds = new HashMap<>();
+    private long[][] subsets = new long[16][];
+    private boolean[] accepting = new boolean[16];
+    private int[] next = new int[0];
+    private int stateCount;
+    private int initialId = -1;
+    private long cacheBytes;
+    private int flushCount;
+
+    // Buffer for computing a set of NFA states.
+    private final long[] scratch;
+
+    /**
+     * Constructor for a LazyDFAMatcher.
+     *
+     * @param nfa an NFA.
+     * @param maxCacheBytes the limit of the estimated cache size in bytes.
+     */
+    LazyDFAMatcher(NFA nfa, long maxCacheBytes) {
+        TreeSet<Character> alphabet = nfa.getAlphabet();
+        this.charMap = DFAMatcher.createCharMap(alphabet);
+        this.columns = Math.max(1, alphabet.size());
+        this.maxCacheBytes = maxCacheBytes;
+        int size = nfa.stateIdCount;
+        this.words = Math.max(1, (size + 63) >>> 6);
+        this.scratch = new long[words];
+        this.nfaInitial = nfa.initialState;
+        this.nfaFinals = new long[words];
+        for (int state = nfa.finalStateSet.nextSetBit(0); state >= 0;
+                state = nfa.finalStateSet.nextSetBit(state + 1)) {
+            nfaFinals[state >>> 6] |= 1L << state;
+        }
+        this.nfaMasks = nfa.getSuccessors();
+    }
+
+    /**
+     * Check if the machine accepts a string.
+     *
+     * @param input a string.
+     * @return true if it does; otherwise, false.
+     */
+    @Override
+    public synchronized boolean matches(CharSequence input) {
+        int state = getInitialId();
+        int length = input.length();
+        for (int i = 0; i < length; i++) {
+            char ch = input.charAt(i);
+            if (ch >= charMap.length || charMap[ch] < 0) {
+                return false;
+            }
+            state = step(state, charMap[ch]);
+            if (state == DEAD) {
+                return false;
+            }
+        }
+        return accepting[state];
+    }
+
+    /**
+     * Check if the machine accepts a range of a character array.
+     *
+     * @param input a character array.
+     * @param offset index of the first character.
+     * @param length number of characters.
+     * @return true if it does; otherwise, false.
+     */
+    @Override
+    public synchronized boolean matches(char[] input, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > input.length) {
+            throw new IndexOutOfBoundsException("offset " + offset
+                    + ", length " + length + ", array length " + input.length);
+        }
+        int state = getInitialId();
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            char ch = input[i];
+            if (ch >= charMap.length || charMap[ch] < 0) {
+                return false;
+            }
+            state = step(state, charMap[ch]);
+            if (state == DEAD) {
+                return false;
+            }
+        }
+        return accepting[state];
+    }
+
+    /**
+     * Get the number of DFA states in the cache.
+     *
+     * @return number of cached states.
+     */
+    public synchronized int getCachedStateCount() {
+        return stateCount;
+    }
+
+    /**
+     * Get the estimated size of the cache in bytes.
+     *
+     * @return estimated bytes.
+     */
+    public synchronized long getCacheBytes() {
+        return cacheBytes;
+    }
+
+    /**
+     * Get how many times the cache has been flushed.
+     *
+     * @return number of flushes.
+     */
+    public synchronized int getFlushCount() {
+        return flushCount;
+    }
+
+    /**
+     * Get the cached id of the initial DFA state, creating it if necessary.
+     *
+     * @return id of the initial state.
+     */
+    private int getInitialId() {
+        if (initialId < 0) {
+            Arrays.fill(scratch, 0L);
+            scratch[nfaInitial >>> 6] |= 1L << nfaInitial;
+            initialId = addState(scratch);
+        }
+        return initialId;
+    }
+
+    /**
+     * Take a move from a cached state, computing and caching it if it is not
+     * known yet. The cache may be flushed, in which case only the returned
+     * state stays valid.
+     *
+     * @param state id of a cached state.
+     * @param column a column.
+     * @return id of the next state or DEAD.
+     */
+    private int step(int state, int column) {
+        int target = next[state * columns + column];
+        if (target != UNKNOWN) {
+            return target;
+        }
+        // Gather the NFA states reached from the set by the column.
+        long[] subset = subsets[state];
+        long[] newSet = scratch;
+        Arrays.fill(newSet, 0L);
+        boolean empty = true;
+        for (int w = 0; w < words; w++) {
+            long word = subset[w];
+            while (word != 0) {
+                int nfaState = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                long[] mask = nfaMasks[nfaState * columns + column];
+                if (mask != null) {
+                    for (int k = 0; k < words; k++) {
+                        newSet[k] |= mask[k];
+                    }
+                    empty = false;
+                }
+            }
+        }
+        if (empty) {
+            next[state * columns + column] = DEAD;
+            return DEAD;
+        }
+        Integer id = stateIds.get(new Subset(newSet));
+        if (id != null) {
+            next[state * columns + column] = id;
+            return id;
+        }
+        if (cacheBytes + stateBytes() > maxCacheBytes && stateCount > 0) {
+            flush();
+            return addState(newSet);
+        }
+        target = addState(newSet);
+        next[state * columns + column] = target;
+        return target;
+    }
+
+    /**
+     * Add a set of NFA states into the cache as a new DFA state.
+     *
+     * @param set a set of NFA states.
+     * @return id of the new state.
+     */
+    private int addState(long[] set) {
+        int id = stateCount;
+        if (id == subsets.length) {
+            subsets = Arrays.copyOf(subsets, id * 2);
+            accepting = Arrays.copyOf(accepting, id * 2);
+        }
+        if ((id + 1) * columns > next.length) {
+            int oldLength = next.length;
+            next = Arrays.copyOf(next, Math.max(16 * columns, oldLength * 2));
+            Arrays.fill(next, oldLength, next.length, UNKNOWN);
+        }
+        long[] copy = set.clone();
+        subsets[id] = copy;
+        boolean isFinal = false;
+        for (int w = 0; w < words; w++) {
+            if ((copy[w] & nfaFinals[w]) != 0) {
+                isFinal = true;
+            }
+        }
+        accepting[id] = isFinal;
+        stateIds.put(new Subset(copy), id);
+        stateCount++;
+        cacheBytes += stateBytes();
+        return id;
+    }
+
+    /**
+     * Remove every state from the cache.
+     */
+    private void flush() {
+        stateIds = new HashMap<>();
+        Arrays.fill(subsets, 0, stateCount, null);
+        Arrays.fill(next, 0, stateCount * columns, UNKNOWN);
+        stateCount = 0;
+        initialId = -1;
+        cacheBytes = 0;
+        flushCount++;
+    }
+
+    /**
+     * Get the estimated bytes of a cached state.
+     *
+     * @return estimated bytes.
+     */
+    private long stateBytes() {
+        return ENTRY_OVERHEAD + 8L * words + 4L * columns;
+    }
+
+    /**
+     * Give a string representation of the matcher.
+     *
+     * @return a string.
+     */
+    @Override
+    public synchronized String toString() {
+        return "LazyDFAMatcher: " + stateCount + " cached states, "
+                + cacheBytes + " of " + maxCacheBytes + " bytes, "
+                + flushCount + " flushes";
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kleenstheorem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class represents a compiled DFA read from its binary form, usually a
+ * file mapped into memory. The matcher runs over the buffer as it is: there
+ * is no pass that copies the tables into the heap, so loading takes the same
+ * time whatever the size of the DFA, and processes that map the same file
+ * share its pages.
+ *
+ * The binary form is written by DFAMatcher.write. It is a sequence of
+ * little endian ints:
+ * <pre>
+ * header     magic "KDFA", version, charMap length, columns, states,
+ *            initial row, table length (0 in version 1), reserved int (0)
+ * charMap    column of each character, -1 if not in the alphabet
+ * table      row offset of the next state of each state and column, -1 if
+ *            it cannot reach a final state
+ * check      version 2 only: row offset of the state owning each entry of
+ *            the table, -1 for a free entry
+ * rows       version 2 only: row offset of each state, ascending
+ * accepting  accepting flags, one bit per state, 32 states per int
+ * </pre>
+ * Version 1 holds a dense table, version 2 a compressed one, as chosen by
+ * DFAMatcher.
+ * Loading only checks the header and the lengths of the sections; the
+ * contents are trusted, since checking them would read the whole file. A
+ * form from an untrusted source should be checked with validate().
+ * A matcher is immutable and can be shared by threads.
+ *
+ * @author ThienDinh
+ */
+public final class MappedDFAMatcher implements AutomatonMatcher {
+
+    // First int of the binary form, "KDFA" in ASCII.
+    static final int MAGIC = 0x4B444641;
+
+    // Version of the binary form with a dense table.
+    static final int VERSION = 1;
+
+    // Version of the binary form with a compressed table.
+    static final int VERSION_COMPRESSED = 2;
+
+    // Number of ints of the header.
+    static final int HEADER_INTS = 8;
+
+    // Column of each character of the alphabet, -1 if not in the alphabet.
+    private final IntBuffer charMap;
+
+    // Number of columns of the table.
+    private final int columns;
+
+    // Transition table of row offsets.
+    private final IntBuffer table;
+
+    // Owner of each entry of a compressed table, null if dense.
+    private final IntBuffer check;
+
+    // Row offset of each state of a compressed table, null if dense.
+    private final IntBuffer rowOffsets;
+
+    // Accepting flags, one bit per state.
+    private final IntBuffer accepting;
+
+    // Number of states.
+    private final int stateCount;
+
+    // Row offset of the initial state, or -1 if no string is accepted.
+    private final int initialRow;
+
+    /**
+     * Constructor for a MappedDFAMatcher over the binary form of a DFA. The
+     * buffer is read from its position and must not be changed afterwards.
+     * Only the header is checked; see validate().
+     *
+     * @param buffer a buffer holding the binary form.
+     * @throws IllegalArgumentException if the buffer does not hold the
+     * binary form of a known version, or its sections do not fit.
+     */
+    public MappedDFAMatcher(ByteBuffer buffer) {
+        IntBuffer ints = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        if (ints.remaining() < HEADER_INTS || ints.get(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a compiled DFA");
+        }
+        int version = ints.get(1);
+        if (version != VERSION && version != VERSION_COMPRESSED) {
+            throw new IllegalArgumentException("Unsupported version " + version);
+        }
+        boolean compressed = version == VERSION_COMPRESSED;
+        int charMapLength = ints.get(2);
+        this.columns = ints.get(3);
+        this.stateCount = ints.get(4);
+        this.initialRow = ints.get(5);
+        long tableLength = compressed ? ints.get(6) : (long) stateCount * columns;
+        long extraLength = compressed ? tableLength + stateCount : 0;
+        long acceptLength = (stateCount + 31L) >>> 5;
+        if (charMapLength < 0 || charMapLength > Character.MAX_VALUE + 1
+                || columns < 1 || stateCount < 1 || tableLength < columns
+                || initialRow < -1 || initialRow >= tableLength
+                || HEADER_INTS + charMapLength + tableLength + extraLength
+                + acceptLength > ints.remaining()) {
+            throw new IllegalArgumentException("Corrupt compiled DFA");
+        }
+        int offset = HEADER_INTS;
+        this.charMap = slice(ints, offset, charMapLength);
+        offset += charMapLength;
+        this.table = slice(ints, offset, (int) tableLength);
+        offset += (int) tableLength;
+        if (compressed) {
+            this.check = slice(ints, offset, (int) tableLength);
+            offset += (int) tableLength;
+            this.rowOffsets = slice(ints, offset, stateCount);
+            offset += stateCount;
+        } else {
+            this.check = null;
+            this.rowOffsets = null;
+        }
+        this.accepting = slice(ints, offset, (int) acceptLength);
+    }
+
+    /**
+     * Map a file holding the binary form of a DFA.
+     *
+     * @param file path of a file written by DFAMatcher.write.
+     * @return a MappedDFAMatcher over the mapped file.
+     * @throws IOException if the file cannot be read.
+     * @throws IllegalArgumentException if the file does not hold the binary
+     * form of a known version, or its sections do not fit.
+     */
+    public static MappedDFAMatcher load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed.
+            return new MappedDFAMatcher(channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size()));
+        }
+    }
+
+    /**
+     * Check the contents of the binary form, which loading takes on trust:
+     * every column of the character map is below the number of columns, the
+     * rows of a compressed table are ascending, and every row offset of the
+     * table, of the check table and of the initial state is -1 or the row of
+     * a state. Matching on a form that passes cannot read outside its
+     * tables. It takes time linear in the size of the form.
+     *
+     * @return this matcher.
+     * @throws IllegalArgumentException if the contents are corrupt.
+     */
+    public MappedDFAMatcher validate() {
+        for (int ch = 0; ch < charMap.limit(); ch++) {
+            int col = charMap.get(ch);
+            if (col < -1 || col >= columns) {
+                throw new IllegalArgumentException("Corrupt compiled DFA: column "
+                        + col + " of character " + ch);
+            }
+        }
+        if (rowOffsets != null) {
+            int previous = -1;
+            for (int state = 0; state < stateCount; state++) {
+                int row = rowOffsets.get(state);
+                if (row <= previous || row > table.limit() - columns) {
+                    throw new IllegalArgumentException("Corrupt compiled DFA: row "
+                            + row + " of state " + state);
+                }
+                previous = row;
+            }
+        }
+        checkRow(initialRow);
+        for (int i = 0; i < table.limit(); i++) {
+            checkRow(table.get(i));
+            if (check != null) {
+                checkRow(check.get(i));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Check that a row offset read from the form is -1 or the row of a
+     * state.
+     *
+     * @param row a row offset.
+     * @throws IllegalArgumentException if it is not.
+     */
+    private void checkRow(int row) {
+        if (row == -1) {
+            return;
+        }
+        boolean valid = row >= 0 && row <= table.limit() - columns
+                && (rowOffsets == null ? row % columns == 0
+                        : rowOffsets.get(findState(row)) == row);
+        if (!valid) {
+            throw new IllegalArgumentException("Corrupt compiled DFA: row offset " + row);
+        }
+    }
+
+    /**
+     * Get a range of an int buffer as a buffer of its own.
+     *
+     * @param ints an int buffer.
+     * @param offset index of the first int.
+     * @param length number of ints.
+     * @return the range.
+     */
+    private static IntBuffer slice(IntBuffer ints, int offset, int length) {
+        IntBuffer range = ints.duplicate();
+        range.position(offset).limit(offset + length);
+        return range.slice();
+    }
+
+    /**
+     * Check if the state of a row is accepting.
+     *
+     * @param row a row offset, or -1.
+     * @return true if it is; otherwise, false.
+     */
+    private boolean isAccepting(int row) {
+        if (row < 0) {
+            return false;
+        }
+        int state = rowOffsets == null ? row / columns : findState(row);
+        return (accepting.get(state >>> 5) & (1 << state)) != 0;
+    }
+
+    /**
+     * Find the state of a row of a compressed table by binary search.
+     *
+     * @param row a row offset.
+     * @return its state.
+     */
+    private int findState(int row) {
+        int low = 0;
+        int high = stateCount - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (rowOffsets.get(middle) < row) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Check if the machine accepts a string.
+     *
+     * @param input a string.
+     * @return true if it does; otherwise, false.
+     */
+    @Override
+    public boolean matches(CharSequence input) {
+        IntBuffer charMap = this.charMap;
+        IntBuffer table = this.table;
+        IntBuffer check = this.check;
+        int mapLength = charMap.limit();
+        int row = initialRow;
+        int length = input.length();
+        for (int i = 0; i < length && row >= 0; i++) {
+            char ch = input.charAt(i);
+            int col = ch < mapLength ? charMap.get(ch) : -1;
+            if (col < 0) {
+                return false;
+            }
+            int entry = row + col;
+            row = check == null || check.get(entry) == row ? table.get(entry) : -1;
+        }
+        return isAccepting(row);
+    }
+
+    /**
+     * Check if the machine accepts a range of a character array.
+     *
+     * @param input a character array.
+     * @param offset index of the first character.
+     * @param length number of characters.
+     * @return true if it does; otherwise, false.
+     */
+    @Override
+    public boolean matches(char[] input, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > input.length) {
+            throw new IndexOutOfBoundsException("offset " + offset
+                    + ", length " + length + ", array length " + input.length);
+        }
+        IntBuffer charMap = this.charMap;
+        IntBuffer table = this.table;
+        IntBuffer check = this.check;
+        int mapLength = charMap.limit();
+        int row = initialRow;
+        int end = offset + length;
+        for (int i = offset; i < end && row >= 0; i++) {
+            char ch = input[i];
+            int col = ch < mapLength ? charMap.get(ch) : -1;
+            if (col < 0) {
+                return false;
+            }
+            int entry = row + col;
+            row = check == null || check.get(entry) == row ? table.get(entry) : -1;
+        }
+        return isAccepting(row);
+    }
+
+    /**
+     * Get the number of states of the table.
+     *
+     * @return number of states.
+     */
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    /**
+     * Give a string representation of the matcher.
+     *
+     * @return a string.
+     */
+    @Override
+    public String toString() {
+        return "MappedDFAMatcher: " + stateCount + " states, "
+                + columns + " columns" + (check == null ? ""
+                        : ", compressed to " + table.limit() + " entries");
+    }
+}
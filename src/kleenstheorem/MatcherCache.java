@@ -0,0 +1,332 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kleenstheorem;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * This class represents a cache of compiled matchers, keyed by the pattern
+ * without spaces, so that a pattern is only run through the lambda NFA, NFA,
+ * DFA and minimal DFA once. Entries are kept in least recently used order;
+ * the eldest ones are evicted when there are too many of them or their
+ * estimated size is over the limit, and, if an expiry is set, when they have
+ * not been used for that long.
+ *
+ * The cache is thread safe. A pattern that several threads miss at the same
+ * time is compiled once, outside of the lock; the other threads wait for it.
+ *
+ * @author ThienDinh
+ */
+public final class MatcherCache {
+
+    /**
+     * This class represents a cached matcher.
+     */
+    private static final class Entry {
+
+        private final DFAMatcher matcher;
+        private final long bytes;
+        private long lastAccess;
+
+        private Entry(DFAMatcher matcher, long now) {
+            this.matcher = matcher;
+            this.bytes = matcher.getMemoryBytes();
+            this.lastAccess = now;
+        }
+    }
+
+    // Limits of the number of entries and of their estimated size.
+    private final int maxEntries;
+    private final long maxBytes;
+
+    // Time an entry is kept without being used, 0 for no expiry.
+    private final long expiryNanos;
+
+    // Entries in least recently used order.
+    private final LinkedHashMap<String, Entry> entries
+            = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Compilations in progress.
+    private final HashMap<String, FutureTask<DFAMatcher>> loading = new HashMap<>();
+
+    // Estimated size of the entries.
+    private long bytes;
+
+    // Counters.
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long expiryCount;
+    private long loadFailureCount;
+    private long loadNanos;
+
+    /**
+     * Constructor for a MatcherCache without expiry.
+     *
+     * @param maxEntries the limit of the number of entries.
+     * @param maxBytes the limit of the estimated size in bytes.
+     */
+    public MatcherCache(int maxEntries, long maxBytes) {
+        this(maxEntries, maxBytes, 0);
+    }
+
+    /**
+     * Constructor for a MatcherCache.
+     *
+     * @param maxEntries the limit of the number of entries.
+     * @param maxBytes the limit of the estimated size in bytes.
+     * @param expiryMillis time an entry is kept without being used, in
+     * milliseconds, 0 for no expiry.
+     */
+    public MatcherCache(int maxEntries, long maxBytes, long expiryMillis) {
+        if (maxEntries < 0 || maxBytes < 0 || expiryMillis < 0) {
+            throw new IllegalArgumentException("Negative limit");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.expiryNanos = expiryMillis * 1000000L;
+    }
+
+    /**
+     * Get the compiled matcher of a pattern, compiling it if it is not
+     * cached.
+     *
+     * @param pattern a regular expression.
+     * @return a DFAMatcher.
+     * @throws IllegalArgumentException if the pattern cannot be parsed.
+     */
+    public DFAMatcher get(String pattern) {
+        final String key = RegularExpression.normalize(pattern);
+        FutureTask<DFAMatcher> task;
+        boolean owner = false;
+        synchronized (this) {
+            long now = System.nanoTime();
+            Entry entry = entries.get(key);
+            if (entry != null && !isExpired(entry, now)) {
+                hitCount++;
+                entry.lastAccess = now;
+                return entry.matcher;
+            }
+            if (entry != null) {
+                // Getting it made it the most recent, so it is removed here.
+                entries.remove(key);
+                bytes -= entry.bytes;
+                expiryCount++;
+            }
+            missCount++;
+            removeExpired(now);
+            task = loading.get(key);
+            if (task == null) {
+                task = new FutureTask<>(new Callable<DFAMatcher>() {
+                    @Override
+                    public DFAMatcher call() {
+                        return new RegularExpression(key).createLambdaNFA()
+                                .createNFA().createDFA().minimize().compile();
+                    }
+                });
+                loading.put(key, task);
+                owner = true;
+            }
+        }
+        if (owner) {
+            long start = System.nanoTime();
+            task.run();
+            long time = System.nanoTime() - start;
+            synchronized (this) {
+                loading.remove(key);
+                loadNanos += time;
+                try {
+                    put(key, task.get());
+                } catch (ExecutionException | InterruptedException ex) {
+                    loadFailureCount++;
+                }
+            }
+        }
+        return waitFor(task);
+    }
+
+    /**
+     * Get the result of a compilation, waiting for it if needed.
+     *
+     * @param task a compilation.
+     * @return its matcher.
+     */
+    private static DFAMatcher waitFor(FutureTask<DFAMatcher> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Add a compiled matcher and evict the least recently used entries
+     * while the cache is over its limits.
+     *
+     * @param key a pattern without spaces.
+     * @param matcher its matcher.
+     */
+    private void put(String key, DFAMatcher matcher) {
+        Entry entry = new Entry(matcher, System.nanoTime());
+        Entry old = entries.put(key, entry);
+        if (old != null) {
+            bytes -= old.bytes;
+        }
+        bytes += entry.bytes;
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (eldest.hasNext() && (entries.size() > maxEntries || bytes > maxBytes)) {
+            bytes -= eldest.next().getValue().bytes;
+            eldest.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Check if an entry has not been used for longer than the expiry.
+     *
+     * @param entry an entry.
+     * @param now the current time in nanoseconds.
+     * @return true if it has; otherwise, false.
+     */
+    private boolean isExpired(Entry entry, long now) {
+        return expiryNanos > 0 && now - entry.lastAccess >= expiryNanos;
+    }
+
+    /**
+     * Remove the expired entries. They are the least recently used ones, so
+     * the search stops at the first entry that is not expired.
+     *
+     * @param now the current time in nanoseconds.
+     */
+    private void removeExpired(long now) {
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (eldest.hasNext()) {
+            Entry entry = eldest.next().getValue();
+            if (!isExpired(entry, now)) {
+                break;
+            }
+            bytes -= entry.bytes;
+            eldest.remove();
+            expiryCount++;
+        }
+    }
+
+    /**
+     * Remove every entry. Counters are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Get the number of entries.
+     *
+     * @return number of entries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the estimated size of the entries in bytes.
+     *
+     * @return estimated bytes.
+     */
+    public synchronized long getCacheBytes() {
+        return bytes;
+    }
+
+    /**
+     * Get how many times a pattern was found in the cache.
+     *
+     * @return number of hits.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Get how many times a pattern was not found in the cache.
+     *
+     * @return number of misses.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Get how many entries were evicted because the cache was full.
+     *
+     * @return number of evictions.
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Get how many entries were removed because they expired.
+     *
+     * @return number of expired entries.
+     */
+    public synchronized long getExpiryCount() {
+        return expiryCount;
+    }
+
+    /**
+     * Get how many compilations failed.
+     *
+     * @return number of failures.
+     */
+    public synchronized long getLoadFailureCount() {
+        return loadFailureCount;
+    }
+
+    /**
+     * Get the total time spent compiling.
+     *
+     * @return time in nanoseconds.
+     */
+    public synchronized long getLoadNanos() {
+        return loadNanos;
+    }
+
+    /**
+     * Give a string representation of the cache.
+     *
+     * @return a string.
+     */
+    @Override
+    public synchronized String toString() {
+        return "MatcherCache: " + entries.size() + " entries, " + bytes
+                + " bytes, " + hitCount + " hits, " + missCount + " misses, "
+                + evictionCount + " evictions, " + expiryCount + " expired";
+    }
+}
@@ -0,0 +1,597 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kleenstheorem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class represents the generation of a JVM class that matches the
+ * language of a compiled DFA. Every state becomes a block of code that
+ * returns whether the state is accepting at the end of the input, and
+ * otherwise reads the next character and jumps to the block of the next
+ * state with a lookupswitch. There is no table, no state variable and no
+ * bounds check on the table; the JIT compiles the blocks like hand written
+ * code.
+ *
+ * The class file is written here, without any bytecode library. It is
+ * defined as a hidden class through MethodHandles.Lookup.defineHiddenClass
+ * when the running JVM has it, and otherwise by a class loader of its own.
+ * Either way it can be unloaded once the matcher is not used.
+ *
+ * @author ThienDinh
+ */
+final class MatcherGenerator {
+
+    // Name of the generated class.
+    private static final String CLASS_NAME = "kleenstheorem/GeneratedMatcher";
+
+    // Largest code of a method allowed by the class file format.
+    private static final int MAX_CODE = 65535;
+
+    // Opcodes.
+    private static final int ICONST_0 = 0x03;
+    private static final int ILOAD_2 = 0x1c;
+    private static final int ILOAD_3 = 0x1d;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int CALOAD = 0x34;
+    private static final int ISTORE_2 = 0x3d;
+    private static final int ISTORE_3 = 0x3e;
+    private static final int DUP = 0x59;
+    private static final int IADD = 0x60;
+    private static final int IINC = 0x84;
+    private static final int IFLT = 0x9b;
+    private static final int IF_ICMPLT = 0xa1;
+    private static final int IF_ICMPGT = 0xa3;
+    private static final int LOOKUPSWITCH = 0xab;
+    private static final int IRETURN = 0xac;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKEINTERFACE = 0xb9;
+    private static final int NEW = 0xbb;
+    private static final int ARRAYLENGTH = 0xbe;
+    private static final int ATHROW = 0xbf;
+    private static final int GOTO_W = 0xc8;
+
+    // Constant pool, and the index of each entry by its key.
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final HashMap<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    // The compiled DFA.
+    private final int[] charMap;
+    private final int stateCount;
+    private final DFAMatcher matcher;
+
+    // Code of the method being written.
+    private byte[] code = new byte[256];
+    private int codeLength;
+
+    // Offsets of the instructions that are jumped to.
+    private final ArrayList<Integer> frames = new ArrayList<>();
+
+    private MatcherGenerator(DFAMatcher matcher) {
+        this.matcher = matcher;
+        this.charMap = matcher.getCharMap();
+        this.stateCount = matcher.getStateCount();
+    }
+
+    /**
+     * Generate and load the class of a compiled DFA.
+     *
+     * @param matcher a compiled DFA.
+     * @return an instance of the generated class, or null if a method
+     * would be too large or the class cannot be defined.
+     */
+    static AutomatonMatcher generate(DFAMatcher matcher) {
+        byte[] classFile;
+        try {
+            classFile = new MatcherGenerator(matcher).writeClass();
+        } catch (IOException ex) {
+            return null;
+        }
+        if (classFile == null) {
+            return null;
+        }
+        try {
+            Class<?> generated = define(classFile);
+            return (AutomatonMatcher) generated.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | SecurityException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Define a class, as a hidden class if the JVM has them.
+     *
+     * @param classFile bytes of the class file.
+     * @return the class.
+     * @throws ReflectiveOperationException if it cannot be defined.
+     */
+    private static Class<?> define(byte[] classFile) throws ReflectiveOperationException {
+        Method defineHidden = null;
+        Object options = null;
+        try {
+            Class<?> optionClass = Class.forName(
+                    "java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            options = Array.newInstance(optionClass, 0);
+            defineHidden = MethodHandles.Lookup.class.getMethod("defineHiddenClass",
+                    byte[].class, boolean.class, options.getClass());
+        } catch (ClassNotFoundException | NoSuchMethodException ex) {
+            // Before Java 15: use a class loader.
+        }
+        if (defineHidden != null) {
+            MethodHandles.Lookup lookup = (MethodHandles.Lookup) defineHidden.invoke(
+                    MethodHandles.lookup(), classFile, true, options);
+            return lookup.lookupClass();
+        }
+        return new GeneratedClassLoader(MatcherGenerator.class.getClassLoader())
+                .define(classFile);
+    }
+
+    /**
+     * This class represents a class loader of one generated class.
+     */
+    private static final class GeneratedClassLoader extends ClassLoader {
+
+        private GeneratedClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        private Class<?> define(byte[] classFile) {
+            return defineClass(null, classFile, 0, classFile.length);
+        }
+    }
+
+    /**
+     * Write the class file.
+     *
+     * @return its bytes, or null if a method would be too large.
+     * @throws IOException never, the class is written in memory.
+     */
+    private byte[] writeClass() throws IOException {
+        int thisClass = classEntry(CLASS_NAME);
+        int objectClass = classEntry("java/lang/Object");
+        int matcherClass = classEntry("kleenstheorem/AutomatonMatcher");
+        int sequenceClass = classEntry("java/lang/CharSequence");
+        int charsClass = classEntry("[C");
+        int exceptionClass = classEntry("java/lang/IndexOutOfBoundsException");
+        int objectInit = memberEntry(10, objectClass, "<init>", "()V");
+        int exceptionInit = memberEntry(10, exceptionClass, "<init>", "()V");
+        int length = memberEntry(11, sequenceClass, "length", "()I");
+        int charAt = memberEntry(11, sequenceClass, "charAt", "(I)C");
+        int codeName = utf8Entry("Code");
+        int stackMapName = utf8Entry("StackMapTable");
+
+        ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+        DataOutputStream methods = new DataOutputStream(methodBytes);
+
+        // Constructor.
+        startCode();
+        emit(ALOAD_0);
+        emit(INVOKESPECIAL);
+        emitShort(objectInit);
+        emit(RETURN);
+        writeMethod(methods, "<init>", "()V", 1, codeName, stackMapName, 0, 0);
+
+        // matches(CharSequence): locals are this, input, length, index.
+        startCode();
+        emit(ALOAD_1);
+        emit(INVOKEINTERFACE);
+        emitShort(length);
+        emit(1);
+        emit(0);
+        emit(ISTORE_2);
+        emit(ICONST_0);
+        emit(ISTORE_3);
+        writeStates(charAt);
+        if (codeLength > MAX_CODE) {
+            return null;
+        }
+        writeMethod(methods, "matches", "(Ljava/lang/CharSequence;)Z", 2,
+                codeName, stackMapName, thisClass, sequenceClass);
+
+        // matches(char[], int, int): after the checks, locals are this,
+        // input, end, index.
+        startCode();
+        emit(ILOAD_2);
+        int toThrow1 = emitBranch(IFLT);
+        emit(ILOAD_3);
+        int toThrow2 = emitBranch(IFLT);
+        emit(ILOAD_2);
+        emit(ILOAD_3);
+        emit(IADD);
+        emit(ALOAD_1);
+        emit(ARRAYLENGTH);
+        int toThrow3 = emitBranch(IF_ICMPGT);
+        emit(ILOAD_2);
+        emit(ILOAD_3);
+        emit(IADD);
+        emit(ILOAD_2);
+        emit(ISTORE_3);
+        emit(ISTORE_2);
+        int toStart = codeLength;
+        emit(GOTO_W);
+        emitInt(0);
+        int throwBlock = mark();
+        patchShort(toThrow1 + 1, throwBlock - toThrow1);
+        patchShort(toThrow2 + 1, throwBlock - toThrow2);
+        patchShort(toThrow3 + 1, throwBlock - toThrow3);
+        emit(NEW);
+        emitShort(exceptionClass);
+        emit(DUP);
+        emit(INVOKESPECIAL);
+        emitShort(exceptionInit);
+        emit(ATHROW);
+        int start = mark();
+        patchInt(toStart + 1, start - toStart);
+        writeStates(-1);
+        if (codeLength > MAX_CODE) {
+            return null;
+        }
+        writeMethod(methods, "matches", "([CII)Z", 3,
+                codeName, stackMapName, thisClass, charsClass);
+
+        ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(classBytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        // Java 7, the first version that needs stack map frames.
+        out.writeShort(51);
+        out.writeShort(poolCount);
+        pool.flush();
+        poolBytes.writeTo(out);
+        // Public, final, super.
+        out.writeShort(0x0031);
+        out.writeShort(thisClass);
+        out.writeShort(objectClass);
+        out.writeShort(1);
+        out.writeShort(matcherClass);
+        out.writeShort(0);
+        out.writeShort(3);
+        methods.flush();
+        methodBytes.writeTo(out);
+        out.writeShort(0);
+        out.flush();
+        return classBytes.toByteArray();
+    }
+
+    /**
+     * Write the blocks of the states, the first one being the initial
+     * state, then the block that rejects.
+     *
+     * @param charAt constant of CharSequence.charAt, or -1 to read from a
+     * character array.
+     */
+    private void writeStates(int charAt) {
+        int initialRow = matcher.getInitialRow();
+        if (initialRow < 0) {
+            emit(ICONST_0);
+            emit(IRETURN);
+            return;
+        }
+        // Blocks are written in the order of the states, except that the
+        // initial state comes first.
+        int initialState = matcher.getState(initialRow);
+        int[] blockStart = new int[stateCount];
+        // Offset of the goto to each state from the current block.
+        int[] stubOf = new int[stateCount];
+        int[] stubFrom = new int[stateCount];
+        Arrays.fill(stubFrom, -1);
+        // Offset of the jump of each case of the current switch.
+        int[] caseAt = new int[charMap.length];
+        ArrayList<int[]> fixups = new ArrayList<>();
+        ArrayList<Integer> rejects = new ArrayList<>();
+        for (int k = 0; k < stateCount; k++) {
+            int state = k == 0 ? initialState : k <= initialState ? k - 1 : k;
+            blockStart[state] = mark();
+            // At the end of the input, return whether the state accepts.
+            emit(ILOAD_3);
+            emit(ILOAD_2);
+            emit(IF_ICMPLT);
+            emitShort(5);
+            int row = matcher.getRow(state);
+            emit(ICONST_0 + (matcher.isAccepting(row) ? 1 : 0));
+            emit(IRETURN);
+            // Read the next character.
+            mark();
+            emit(ALOAD_1);
+            emit(ILOAD_3);
+            if (charAt < 0) {
+                emit(CALOAD);
+            } else {
+                emit(INVOKEINTERFACE);
+                emitShort(charAt);
+                emit(2);
+                emit(0);
+            }
+            emit(IINC);
+            emit(3);
+            emit(1);
+            // Jump to the next state.
+            int switchStart = codeLength;
+            emit(LOOKUPSWITCH);
+            while (codeLength % 4 != 0) {
+                emit(0);
+            }
+            rejects.add(codeLength);
+            rejects.add(switchStart);
+            emitInt(0);
+            int pairsAt = codeLength;
+            emitInt(0);
+            int pairs = 0;
+            for (int ch = 0; ch < charMap.length; ch++) {
+                int target = charMap[ch] < 0 ? -1 : matcher.next(row, charMap[ch]);
+                if (target < 0) {
+                    continue;
+                }
+                emitInt(ch);
+                caseAt[pairs++] = codeLength;
+                emitInt(matcher.getState(target));
+            }
+            patchInt(pairsAt, pairs);
+            // The cases go to a goto per next state instead of the block
+            // itself: the interpreter counts the backward jumps of gotos,
+            // not of switches, and without them a long input is never
+            // compiled on stack.
+            for (int i = 0; i < pairs; i++) {
+                int target = readInt(caseAt[i]);
+                if (stubFrom[target] != state) {
+                    stubFrom[target] = state;
+                    stubOf[target] = mark();
+                    fixups.add(new int[]{codeLength + 1, codeLength, target});
+                    emit(GOTO_W);
+                    emitInt(0);
+                }
+                patchInt(caseAt[i], stubOf[target] - switchStart);
+            }
+            if (codeLength > MAX_CODE) {
+                return;
+            }
+        }
+        int reject = mark();
+        emit(ICONST_0);
+        emit(IRETURN);
+        for (int i = 0; i < rejects.size(); i += 2) {
+            patchInt(rejects.get(i), reject - rejects.get(i + 1));
+        }
+        for (int[] fixup : fixups) {
+            patchInt(fixup[0], blockStart[fixup[2]] - fixup[1]);
+        }
+    }
+
+    /**
+     * Write a method with the code written since startCode. Every marked
+     * offset gets a full frame with the given locals and an empty stack.
+     *
+     * @param out the methods of the class.
+     * @param name name of the method.
+     * @param descriptor descriptor of the method.
+     * @param maxStack most values on the stack.
+     * @param codeName constant of "Code".
+     * @param stackMapName constant of "StackMapTable".
+     * @param thisClass constant of the class, for the frames.
+     * @param inputClass constant of the class of the input, for the frames.
+     * @throws IOException never, the class is written in memory.
+     */
+    private void writeMethod(DataOutputStream out, String name, String descriptor,
+            int maxStack, int codeName, int stackMapName, int thisClass,
+            int inputClass) throws IOException {
+        ByteArrayOutputStream mapBytes = new ByteArrayOutputStream();
+        DataOutputStream map = new DataOutputStream(mapBytes);
+        Integer[] offsets = frames.toArray(new Integer[frames.size()]);
+        Arrays.sort(offsets);
+        int previous = -1;
+        int frameCount = 0;
+        for (int offset : offsets) {
+            if (offset == previous || offset >= codeLength) {
+                continue;
+            }
+            map.writeByte(255);
+            map.writeShort(previous < 0 ? offset : offset - previous - 1);
+            map.writeShort(4);
+            map.writeByte(7);
+            map.writeShort(thisClass);
+            map.writeByte(7);
+            map.writeShort(inputClass);
+            map.writeByte(1);
+            map.writeByte(1);
+            map.writeShort(0);
+            previous = offset;
+            frameCount++;
+        }
+        map.flush();
+
+        // Public.
+        out.writeShort(0x0001);
+        out.writeShort(utf8Entry(name));
+        out.writeShort(utf8Entry(descriptor));
+        out.writeShort(1);
+        out.writeShort(codeName);
+        int attributeLength = frameCount == 0 ? 0 : 8 + mapBytes.size();
+        out.writeInt(12 + codeLength + attributeLength);
+        out.writeShort(maxStack);
+        out.writeShort(4);
+        out.writeInt(codeLength);
+        out.write(code, 0, codeLength);
+        out.writeShort(0);
+        if (frameCount == 0) {
+            out.writeShort(0);
+            return;
+        }
+        out.writeShort(1);
+        out.writeShort(stackMapName);
+        out.writeInt(2 + mapBytes.size());
+        out.writeShort(frameCount);
+        mapBytes.writeTo(out);
+    }
+
+    /**
+     * Start the code of a method.
+     */
+    private void startCode() {
+        codeLength = 0;
+        frames.clear();
+    }
+
+    /**
+     * Mark the current offset as jumped to.
+     *
+     * @return the offset.
+     */
+    private int mark() {
+        frames.add(codeLength);
+        return codeLength;
+    }
+
+    /**
+     * Write a byte of code.
+     *
+     * @param value a byte.
+     */
+    private void emit(int value) {
+        if (codeLength == code.length) {
+            code = Arrays.copyOf(code, codeLength * 2);
+        }
+        code[codeLength++] = (byte) value;
+    }
+
+    /**
+     * Write two bytes of code.
+     *
+     * @param value a short.
+     */
+    private void emitShort(int value) {
+        emit(value >>> 8);
+        emit(value);
+    }
+
+    /**
+     * Write four bytes of code.
+     *
+     * @param value an int.
+     */
+    private void emitInt(int value) {
+        emitShort(value >>> 16);
+        emitShort(value);
+    }
+
+    /**
+     * Write a branch whose offset is patched later.
+     *
+     * @param opcode a branch with a two byte offset.
+     * @return the offset of the branch.
+     */
+    private int emitBranch(int opcode) {
+        int at = codeLength;
+        emit(opcode);
+        emitShort(0);
+        return at;
+    }
+
+    /**
+     * Read four bytes of code.
+     *
+     * @param at offset of the bytes.
+     * @return an int.
+     */
+    private int readInt(int at) {
+        return (code[at] << 24) | ((code[at + 1] & 0xff) << 16)
+                | ((code[at + 2] & 0xff) << 8) | (code[at + 3] & 0xff);
+    }
+
+    /**
+     * Replace two bytes of code.
+     *
+     * @param at offset of the bytes.
+     * @param value a short.
+     */
+    private void patchShort(int at, int value) {
+        code[at] = (byte) (value >>> 8);
+        code[at + 1] = (byte) value;
+    }
+
+    /**
+     * Replace four bytes of code.
+     *
+     * @param at offset of the bytes.
+     * @param value an int.
+     */
+    private void patchInt(int at, int value) {
+        patchShort(at, value >>> 16);
+        patchShort(at + 2, value);
+    }
+
+    /**
+     * Get the constant of a string, adding it if needed.
+     *
+     * @param value a string.
+     * @return its index in the constant pool.
+     * @throws IOException never, the pool is written in memory.
+     */
+    private int utf8Entry(String value) throws IOException {
+        Integer index = poolIndex.get("U" + value);
+        if (index == null) {
+            pool.writeByte(1);
+            pool.writeUTF(value);
+            index = poolCount++;
+            poolIndex.put("U" + value, index);
+        }
+        return index;
+    }
+
+    /**
+     * Get the constant of a class, adding it if needed.
+     *
+     * @param name internal name of the class.
+     * @return its index in the constant pool.
+     * @throws IOException never, the pool is written in memory.
+     */
+    private int classEntry(String name) throws IOException {
+        Integer index = poolIndex.get("C" + name);
+        if (index == null) {
+            int nameIndex = utf8Entry(name);
+            pool.writeByte(7);
+            pool.writeShort(nameIndex);
+            index = poolCount++;
+            poolIndex.put("C" + name, index);
+        }
+        return index;
+    }
+
+    /**
+     * Add the constant of a method.
+     *
+     * @param tag 10 for a class method, 11 for an interface method.
+     * @param owner constant of the class of the method.
+     * @param name name of the method.
+     * @param descriptor descriptor of the method.
+     * @return its index in the constant pool.
+     * @throws IOException never, the pool is written in memory.
+     */
+    private int memberEntry(int tag, int owner, String name, String descriptor)
+            throws IOException {
+        int nameIndex = utf8Entry(name);
+        int descriptorIndex = utf8Entry(descriptor);
+        pool.writeByte(12);
+        pool.writeShort(nameIndex);
+        pool.writeShort(descriptorIndex);
+        int nameAndType = poolCount++;
+        pool.writeByte(tag);
+        pool.writeShort(owner);
+        pool.writeShort(nameAndType);
+        return poolCount++;
+    }
+}
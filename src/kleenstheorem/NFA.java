@@ -6,10 +6,13 @@
 package kleenstheorem;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.TreeSet;
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * This class represents an NFA.
@@ -20,6 +23,11 @@ public class NFA extends FiniteAutomaton {
 
     private TreeSet<Character> alphabet;
 
+    // States reached from each state by each letter, indexed by
+    // state * columns + column, null if there is none. Made when first
+    // needed and dropped when transitions change.
+    private long[][] successors;
+
     /**
      * Constructor for NFA.
      *
@@ -37,80 +45,412 @@ public class NFA extends FiniteAutomaton {
     }
 
     /**
-     * Create a DFA from this NFA.
+     * Constructor for an NFA of numbered states and no transitions.
+     *
+     * @param stateIdCount number of states.
+     * @param initialState an initial state.
+     * @param finalStateSet a final state set.
+     * @param descriptions descriptions of states, or null.
+     * @param alphabet an alphabet.
+     */
+    NFA(int stateIdCount, int initialState, BitSet finalStateSet,
+            String[] descriptions, TreeSet<Character> alphabet) {
+        super(stateIdCount, initialState, finalStateSet, descriptions);
+        this.alphabet = (TreeSet<Character>) alphabet.clone();
+    }
+
+    /**
+     * Add a transition into the NFA.
+     *
+     * @param fromState id of a state.
+     * @param expr a letter.
+     * @param toState id of another state.
+     */
+    @Override
+    public void addTransition(int fromState, String expr, int toState) {
+        super.addTransition(fromState, expr, toState);
+        successors = null;
+    }
+
+    /**
+     * Remove a transition. The last transition takes its index.
+     *
+     * @param index index of the transition.
+     */
+    @Override
+    protected void removeTransition(int index) {
+        super.removeTransition(index);
+        successors = null;
+    }
+
+    /**
+     * Update a state in the NFA. It will also update transitions.
+     *
+     * @param oldState an old state.
+     * @param newState a new state.
+     */
+    @Override
+    public void updateState(State oldState, State newState) {
+        super.updateState(oldState, newState);
+        successors = null;
+    }
+
+    /**
+     * Get the states reached from every state by every letter. Columns are
+     * given by DFAMatcher.createCharMap of the alphabet. The sets must not
+     * be changed.
+     *
+     * @return the reached states, indexed by state * columns + column, null
+     * if there is none.
+     */
+    long[][] getSuccessors() {
+        if (successors == null) {
+            int[] charMap = DFAMatcher.createCharMap(alphabet);
+            int columns = Math.max(1, alphabet.size());
+            int words = Math.max(1, (stateIdCount + 63) >>> 6);
+            long[][] table = new long[stateIdCount * columns][];
+            for (int i = 0; i < transitionCount; i++) {
+                int key = transFrom[i] * columns + charMap[transLabel[i].charAt(0)];
+                if (table[key] == null) {
+                    table[key] = new long[words];
+                }
+                table[key][transTo[i] >>> 6] |= 1L << transTo[i];
+            }
+            successors = table;
+        }
+        return successors;
+    }
+
+    /**
+     * Set the states reached from every state by every letter, when they
+     * are already known.
+     *
+     * @param successors the reached states, indexed by state * columns +
+     * column.
+     */
+    void setSuccessors(long[][] successors) {
+        this.successors = successors;
+    }
+
+    /**
+     * Create a DFA from this NFA. A DFA state is a set of NFA states kept as
+     * a bitset; discovered sets are found by hashing, and the set reached by
+     * a letter is the union of the successor masks of its members. The DFA
+     * keeps the sets, and describes a state by its set only when asked.
      *
      * @return a DFA.
      */
     public DFA createDFA() {
-        // What state of the machine after it takes a empty string.
-        // More than likely, it is the initial state.
-        // Start from that state.
-        State initialState = new State("(" + this.initialState.getDescription() + ")");
-        TreeSet<State> finalStateSet = new TreeSet<>();
-        // Every state has a fixed number of moves to other state.
-        // There will be an empty set state.
-        TreeSet<State> stateSet = new TreeSet<>();
-        TreeSet<Transition> transList = new TreeSet<>();
-
-        // Prepare open list and closed list for breadth first search
-        Queue<TreeSet<State>> openList = new LinkedList<>();
-        ArrayList<TreeSet<State>> closedList = new ArrayList<>();
-        TreeSet<State> startSet = new TreeSet<>();
-        startSet.add(new State(this.initialState.getDescription()));
+        PipelineMetrics.Recording recording = PipelineMetrics.begin();
+        int peakSubsetSize = 0;
+        int[] charMap = DFAMatcher.createCharMap(alphabet);
+        int columns = Math.max(1, alphabet.size());
+        int words = Math.max(1, (stateIdCount + 63) >>> 6);
+        long[][] masks = getSuccessors();
+        String[] labels = new String[columns];
+        for (Character ch : alphabet) {
+            labels[charMap[ch]] = String.valueOf(ch);
+        }
+        long[] finals = toWords(finalStateSet, words);
+        // Every set of NFA states that is discovered corresponds to a state
+        // of the DFA. There will be an empty set state.
+        DFA dfa = new DFA(0, 0, new BitSet(), null, alphabet);
+        HashMap<Subset, Integer> dfaIds = new HashMap<>();
+        ArrayList<long[]> openList = new ArrayList<>();
+        long[] startSet = new long[words];
+        startSet[initialState >>> 6] |= 1L << initialState;
+        dfaIds.put(new Subset(startSet), dfa.addState(null));
         openList.add(startSet);
 
-        // While the open list is not empty.
-        while (!openList.isEmpty()) {
-            TreeSet<State> consideringSet = openList.remove();
-            State oldState = new State(consideringSet.toString());
-            // Check if it's already in closed list. If so, skip.
-            if (closedList.contains(consideringSet)) {
-                continue;
+        // Breadth first search: the open list is never shrunk, so the index
+        // of a set in it is its id in the DFA.
+        long[] newSet = new long[words];
+        for (int id = 0; id < openList.size(); id++) {
+            long[] consideringSet = openList.get(id);
+            // If this set has a state that is in the final state of the NFA.
+            if (intersects(consideringSet, finals)) {
+                dfa.finalStateSet.set(id);
             }
-            // Flag of checking if the set has any final state.
-            boolean hasFinal = false;
-
-            // Begin the examination. Explore its neighbors.
-            // The number of sets will be produced equals to |alphabet|.
-            for (Character ch : this.alphabet) {
-                // newSet is to store discovered set.
-                TreeSet<State> newSet = new TreeSet<>();
-                for (State state: consideringSet) {
-                    // If this set has a state that is in the final state of the NFA.
-                    if (this.finalStateSet.contains(state)) {
-                        hasFinal = true;
-                    }
-                    // Get end state that has the matching begin state and transition letter.
-                    for (Transition trans : transitionList) {
-                        if (trans.getFromState().equals(state)
-                                && trans.getTransition().equals(String.valueOf(ch))) {
-                            newSet.add(new State(trans.getToState().getDescription()));
+            // Explore its neighbors. The number of sets will be produced
+            // equals to |alphabet|.
+            for (int col = 0; col < alphabet.size(); col++) {
+                move(consideringSet, col, masks, columns, newSet);
+                // The buffer is only copied when the set is new.
+                Integer newId = dfaIds.get(new Subset(newSet));
+                if (newId == null) {
+                    long[] copy = newSet.clone();
+                    newId = dfa.addState(null);
+                    dfaIds.put(new Subset(copy), newId);
+                    openList.add(copy);
+                }
+                dfa.addTransition(id, labels[col], newId);
+            }
+            if (recording != null) {
+                peakSubsetSize = Math.max(peakSubsetSize, cardinality(consideringSet));
+            }
+        }
+        dfa.setMemberSets(openList.toArray(new long[openList.size()][]), this);
+        dfa.pattern = pattern;
+        dfa.endStage(recording, PipelineStage.DFA, peakSubsetSize);
+        return dfa;
+    }
+
+    /**
+     * Create a DFA from this NFA on a ForkJoinPool. The search goes one
+     * breadth first level at a time: the sets reached from every state of a
+     * level are computed and looked up in parallel, then the new sets are
+     * numbered on this thread in the order the sequential search would give
+     * them. The DFA is therefore the same as the one of createDFA().
+     *
+     * @param pool a ForkJoinPool.
+     * @return a DFA.
+     */
+    public DFA createDFA(ForkJoinPool pool) {
+        PipelineMetrics.Recording recording = PipelineMetrics.begin();
+        int peakSubsetSize = 0;
+        int[] charMap = DFAMatcher.createCharMap(alphabet);
+        int columns = Math.max(1, alphabet.size());
+        int letters = alphabet.size();
+        int words = Math.max(1, (stateIdCount + 63) >>> 6);
+        long[][] masks = getSuccessors();
+        String[] labels = new String[columns];
+        for (Character ch : alphabet) {
+            labels[charMap[ch]] = String.valueOf(ch);
+        }
+        long[] finals = toWords(finalStateSet, words);
+        DFA dfa = new DFA(0, 0, new BitSet(), null, alphabet);
+        ConcurrentHashMap<Subset, Integer> dfaIds = new ConcurrentHashMap<>();
+        ArrayList<long[]> openList = new ArrayList<>();
+        long[] startSet = new long[words];
+        startSet[initialState >>> 6] |= 1L << initialState;
+        dfaIds.put(new Subset(startSet), dfa.addState(null));
+        openList.add(startSet);
+
+        for (int levelStart = 0; levelStart < openList.size();) {
+            int levelEnd = openList.size();
+            MoveTask task = new MoveTask(openList.subList(levelStart, levelEnd)
+                    .toArray(new long[levelEnd - levelStart][]),
+                    letters, masks, columns, dfaIds);
+            pool.invoke(task);
+            for (int id = levelStart; id < levelEnd; id++) {
+                if (intersects(openList.get(id), finals)) {
+                    dfa.finalStateSet.set(id);
+                }
+                if (recording != null) {
+                    peakSubsetSize = Math.max(peakSubsetSize, cardinality(openList.get(id)));
+                }
+                for (int col = 0; col < letters; col++) {
+                    int k = (id - levelStart) * letters + col;
+                    int newId = task.ids[k];
+                    if (newId < 0) {
+                        // Sets new to this level may repeat.
+                        Integer known = dfaIds.get(new Subset(task.sets[k]));
+                        if (known == null) {
+                            known = dfa.addState(null);
+                            dfaIds.put(new Subset(task.sets[k]), known);
+                            openList.add(task.sets[k]);
                         }
+                        newId = known;
                     }
+                    dfa.addTransition(id, labels[col], newId);
+                }
+            }
+            levelStart = levelEnd;
+        }
+        dfa.setMemberSets(openList.toArray(new long[openList.size()][]), this);
+        dfa.pattern = pattern;
+        dfa.endStage(recording, PipelineStage.DFA, peakSubsetSize);
+        return dfa;
+    }
+
+    /**
+     * This class represents the moves of a range of sets of one level of
+     * the parallel search. For every set and letter it keeps the reached
+     * set and its DFA id if it is already known.
+     */
+    private final class MoveTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        // Fewest sets worth splitting.
+        private static final int THRESHOLD = 16;
+
+        private final long[][] level;
+        private final int letters;
+        private final long[][] masks;
+        private final int columns;
+        private final ConcurrentHashMap<Subset, Integer> dfaIds;
+        private final int from;
+        private final int to;
+
+        // Results indexed by set * letters + column.
+        private final long[][] sets;
+        private final int[] ids;
+
+        private MoveTask(long[][] level, int letters, long[][] masks,
+                int columns, ConcurrentHashMap<Subset, Integer> dfaIds) {
+            this(level, letters, masks, columns, dfaIds, 0, level.length,
+                    new long[level.length * letters][], new int[level.length * letters]);
+        }
+
+        private MoveTask(long[][] level, int letters, long[][] masks,
+                int columns, ConcurrentHashMap<Subset, Integer> dfaIds,
+                int from, int to, long[][] sets, int[] ids) {
+            this.level = level;
+            this.letters = letters;
+            this.masks = masks;
+            this.columns = columns;
+            this.dfaIds = dfaIds;
+            this.from = from;
+            this.to = to;
+            this.sets = sets;
+            this.ids = ids;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > THRESHOLD) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new MoveTask(level, letters, masks, columns, dfaIds,
+                        from, middle, sets, ids),
+                        new MoveTask(level, letters, masks, columns, dfaIds,
+                                middle, to, sets, ids));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                for (int col = 0; col < letters; col++) {
+                    int k = i * letters + col;
+                    long[] newSet = new long[level[i].length];
+                    move(level[i], col, masks, columns, newSet);
+                    sets[k] = newSet;
+                    Integer id = dfaIds.get(new Subset(newSet));
+                    ids[k] = id == null ? -1 : id;
                 }
-                // After gathering all appropriate states into new set.
-                // Check this set before add it into openlist
-                if (!closedList.contains(newSet)) {
-                    openList.add(newSet);
+            }
+        }
+    }
+
+    /**
+     * Get the set of states reached from a set of states by a column.
+     *
+     * @param set a bitset of states.
+     * @param column a column.
+     * @param masks the successor masks of the states.
+     * @param columns number of columns.
+     * @param into receives the reached states.
+     */
+    private static void move(long[] set, int column, long[][] masks,
+            int columns, long[] into) {
+        Arrays.fill(into, 0L);
+        for (int w = 0; w < set.length; w++) {
+            for (long word = set[w]; word != 0; word &= word - 1) {
+                long[] mask = masks[((w << 6) + Long.numberOfTrailingZeros(word))
+                        * columns + column];
+                if (mask != null) {
+                    for (int k = 0; k < into.length; k++) {
+                        into[k] |= mask[k];
+                    }
                 }
-                // Make a new state for DFA. The description for this state
-                // is a set of states.
-                // Add new transition into DFA.
-                State newState = new State(newSet.toString());
-                Transition trans = new Transition(oldState, String.valueOf(ch), newState);
-                transList.add(trans);
             }
-            closedList.add(consideringSet);
-            // Every set that is put in closed list correspond to each state
-            // in the machine.
-            stateSet.add(new State(consideringSet.toString()));
-            // If this set has final state, then it should be in final set.
-            if (hasFinal) {
-                finalStateSet.add(new State(consideringSet.toString()));
+        }
+    }
+
+    /**
+     * Get a set of states as a bitset of words.
+     *
+     * @param set a set of states.
+     * @param words number of words.
+     * @return a bitset.
+     */
+    private static long[] toWords(BitSet set, int words) {
+        long[] bits = new long[words];
+        for (int state = set.nextSetBit(0); state >= 0;
+                state = set.nextSetBit(state + 1)) {
+            bits[state >>> 6] |= 1L << state;
+        }
+        return bits;
+    }
+
+    /**
+     * Check if two bitsets have a common state.
+     *
+     * @param set1 a bitset.
+     * @param set2 another bitset.
+     * @return true if they do; otherwise, false.
+     */
+    private static boolean intersects(long[] set1, long[] set2) {
+        for (int w = 0; w < set1.length; w++) {
+            if ((set1[w] & set2[w]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Count the states of a bitset.
+     *
+     * @param set a bitset.
+     * @return number of states.
+     */
+    private static int cardinality(long[] set) {
+        int count = 0;
+        for (long word : set) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * Estimate the memory used by the machine, with its successor sets if
+     * they are made. A set shared by several states is counted for each.
+     *
+     * @return estimated bytes.
+     */
+    @Override
+    long getRetainedBytes() {
+        long bytes = super.getRetainedBytes();
+        long[][] successors = this.successors;
+        if (successors != null) {
+            bytes += 16 + 8L * successors.length;
+            for (long[] set : successors) {
+                if (set != null) {
+                    bytes += 16 + 8L * set.length;
+                }
             }
         }
-        // Open list is empty.
-        return new DFA(stateSet, initialState, finalStateSet, transList, alphabet);
+        return bytes;
+    }
+
+    /**
+     * Create a lazily built DFA from this NFA. DFA states are only created
+     * when matching reaches them, and the cache of created states is flushed
+     * whenever its estimated size would go over the limit.
+     *
+     * @param maxCacheBytes the limit of the estimated cache size in bytes.
+     * @return a LazyDFAMatcher.
+     */
+    public LazyDFAMatcher createLazyDFA(long maxCacheBytes) {
+        return new LazyDFAMatcher(this, maxCacheBytes);
+    }
+
+    /**
+     * Get alphabet.
+     *
+     * @return alphabet.
+     */
+    public TreeSet<Character> getAlphabet() {
+        return this.alphabet;
+    }
+
+    /**
+     * Create a matcher that simulates this NFA directly on bitsets of
+     * states, without building a DFA.
+     *
+     * @return a BitParallelMatcher.
+     */
+    public BitParallelMatcher createBitParallelMatcher() {
+        return new BitParallelMatcher(this, alphabet);
     }
 
     /**
@@ -119,9 +459,7 @@ public class NFA extends FiniteAutomaton {
      * @return a RegNFA.
      */
     public RegNFA createRegNFA() {
-        RegNFA regNFA = new RegNFA(this.stateSet, initialState,
-                this.finalStateSet, this.transitionList);
-        return regNFA;
+        return new RegNFA(this);
     }
 
     /**
@@ -0,0 +1,297 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kleenstheorem;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.TreeSet;
+
+/**
+ * This class represents a set of regular expressions compiled into one DFA.
+ * The lambda NFAs of the expressions are joined under a new initial state,
+ * and the final state of each one is tagged with the id of its expression,
+ * which is its index in the set. The machine is determinized once, and every
+ * state of the DFA keeps the ids of the expressions it accepts, so one scan
+ * of a string tells which expressions match it.
+ *
+ * The DFA is not minimized: states that accept different expressions cannot
+ * be merged. It is compiled like the DFA of one expression, so moves into
+ * states that cannot accept any expression are cut and a scan stops early.
+ * A PatternSet is immutable and can be shared by threads.
+ *
+ * @author ThienDinh
+ */
+public final class PatternSet implements AutomatonMatcher {
+
+    // The expressions, by id.
+    private final RegularExpression[] patterns;
+
+    // The DFA of the joined expressions, compiled. A state accepts when it
+    // accepts some expression.
+    private final DFAMatcher matcher;
+
+    // Ids of the expressions accepted by each state of the matcher,
+    // ascending.
+    private final int[] acceptStart;
+    private final int[] acceptIds;
+
+    /**
+     * Constructor for a PatternSet.
+     *
+     * @param patterns the expressions; the id of an expression is its index.
+     */
+    public PatternSet(RegularExpression... patterns) {
+        this.patterns = patterns.clone();
+
+        // Join the lambda NFAs under a new initial state 0.
+        LambdaNFA[] machines = new LambdaNFA[patterns.length];
+        TreeSet<Character> alphabet = new TreeSet<>();
+        int size = 1;
+        for (int id = 0; id < patterns.length; id++) {
+            machines[id] = patterns[id].createLambdaNFA();
+            alphabet.addAll(machines[id].getAlphabet());
+            size += machines[id].stateIdCount;
+        }
+        int[] patternOf = new int[size];
+        Arrays.fill(patternOf, -1);
+        BitSet lambdaPatterns = new BitSet();
+        LambdaNFA joined = new LambdaNFA(size, 0, new BitSet(), null, alphabet);
+        int base = 1;
+        for (int id = 0; id < patterns.length; id++) {
+            LambdaNFA machine = machines[id];
+            for (int i = 0; i < machine.transitionCount; i++) {
+                joined.addTransition(base + machine.transFrom[i],
+                        machine.transLabel[i], base + machine.transTo[i]);
+            }
+            joined.addTransition(0, "", base + machine.initialState);
+            for (int state = machine.finalStateSet.nextSetBit(0); state >= 0;
+                    state = machine.finalStateSet.nextSetBit(state + 1)) {
+                joined.finalStateSet.set(base + state);
+                patternOf[base + state] = id;
+            }
+            // The initial set of the DFA is only the new initial state, so
+            // the expressions that accept lambda are found here.
+            if (new LambdaClosure(machine, null).intersects(
+                    machine.initialState, machine.finalStateSet)) {
+                lambdaPatterns.set(id);
+            }
+            base += machine.stateIdCount;
+            machines[id] = null;
+        }
+        joined.pattern = Arrays.toString(this.patterns);
+        NFA nfa = joined.createNFA();
+
+        // Determinize. Every state of the DFA stands for a set of states of
+        // the NFA, and it accepts when one of them is a final state.
+        DFA dfa = nfa.createDFA();
+        long[][] subsets = dfa.getMemberSets();
+        // Compile it as the DFA of one expression: moves into states that
+        // cannot accept are cut, characters that no state tells apart share
+        // a column, and a sparse table is compressed.
+        int[] stateIds = new int[dfa.stateIdCount];
+        matcher = dfa.compile(stateIds);
+        int stateCount = matcher.getStateCount();
+
+        // Tag each state of the matcher with the expressions it accepts.
+        acceptStart = new int[stateCount + 1];
+        int[] ids = new int[16];
+        int idCount = 0;
+        for (int state = 0; state < stateCount; state++) {
+            acceptStart[state] = idCount;
+            int id = stateIds[state];
+            BitSet accepted = id == 0 ? lambdaPatterns : new BitSet();
+            if (id > 0) {
+                long[] set = subsets[id];
+                for (int w = 0; w < set.length; w++) {
+                    for (long word = set[w]; word != 0; word &= word - 1) {
+                        int pattern = patternOf[(w << 6) + Long.numberOfTrailingZeros(word)];
+                        if (pattern >= 0) {
+                            accepted.set(pattern);
+                        }
+                    }
+                }
+            }
+            for (int pattern = accepted.nextSetBit(0); pattern >= 0;
+                    pattern = accepted.nextSetBit(pattern + 1)) {
+                if (idCount == ids.length) {
+                    ids = Arrays.copyOf(ids, idCount * 2);
+                }
+                ids[idCount++] = pattern;
+            }
+        }
+        acceptStart[stateCount] = idCount;
+        acceptIds = Arrays.copyOf(ids, idCount);
+    }
+
+    /**
+     * Constructor for a PatternSet.
+     *
+     * @param patterns the expressions; the id of an expression is its
+     * position in the iteration order.
+     */
+    public PatternSet(Collection<RegularExpression> patterns) {
+        this(patterns.toArray(new RegularExpression[patterns.size()]));
+    }
+
+    /**
+     * Run the DFA over a string.
+     *
+     * @param input a string.
+     * @return the row offset of the state reached, or -1 if no expression
+     * matches.
+     */
+    private int scan(CharSequence input) {
+        return matcher.run(matcher.getInitialRow(), input);
+    }
+
+    /**
+     * Run the DFA over a range of a character array.
+     *
+     * @param input a character array.
+     * @param offset index of the first character.
+     * @param length number of characters.
+     * @return the row offset of the state reached, or -1 if no expression
+     * matches.
+     */
+    private int scan(char[] input, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > input.length) {
+            throw new IndexOutOfBoundsException("offset " + offset
+                    + ", length " + length + ", array length " + input.length);
+        }
+        return matcher.run(matcher.getInitialRow(), input, offset,
+                offset + length);
+    }
+
+    /**
+     * Check if the state of a row accepts an expression.
+     *
+     * @param row a row offset, or -1.
+     * @return true if it does; otherwise, false.
+     */
+    private boolean accepts(int row) {
+        return matcher.isAccepting(row);
+    }
+
+    /**
+     * Get the ids of the expressions that match a whole string.
+     *
+     * @param input a string.
+     * @return a bitset of ids.
+     */
+    public BitSet match(CharSequence input) {
+        BitSet matched = new BitSet(patterns.length);
+        int row = scan(input);
+        if (row >= 0) {
+            int state = matcher.getState(row);
+            for (int j = acceptStart[state]; j < acceptStart[state + 1]; j++) {
+                matched.set(acceptIds[j]);
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Get the ids of the expressions that match a whole string.
+     *
+     * @param input a string.
+     * @return the ids, ascending.
+     */
+    public int[] matchIds(CharSequence input) {
+        int row = scan(input);
+        if (row < 0) {
+            return new int[0];
+        }
+        int state = matcher.getState(row);
+        return Arrays.copyOfRange(acceptIds, acceptStart[state],
+                acceptStart[state + 1]);
+    }
+
+    /**
+     * Count, for every expression, the strings it matches. Each string is
+     * scanned once for all expressions.
+     *
+     * @param inputs strings.
+     * @return the number of strings matched by each expression, by id.
+     */
+    public long[] countMatches(Iterable<? extends CharSequence> inputs) {
+        long[] counts = new long[patterns.length];
+        for (CharSequence input : inputs) {
+            int row = scan(input);
+            if (row >= 0) {
+                int state = matcher.getState(row);
+                for (int j = acceptStart[state]; j < acceptStart[state + 1]; j++) {
+                    counts[acceptIds[j]]++;
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Check if some expression of the set matches a string.
+     *
+     * @param input a string.
+     * @return true if one does; otherwise, false.
+     */
+    @Override
+    public boolean matches(CharSequence input) {
+        return accepts(scan(input));
+    }
+
+    /**
+     * Check if some expression of the set matches a range of a character
+     * array.
+     *
+     * @param input a character array.
+     * @param offset index of the first character.
+     * @param length number of characters.
+     * @return true if one does; otherwise, false.
+     */
+    @Override
+    public boolean matches(char[] input, int offset, int length) {
+        return accepts(scan(input, offset, length));
+    }
+
+    /**
+     * Get the number of expressions.
+     *
+     * @return number of expressions.
+     */
+    public int getPatternCount() {
+        return patterns.length;
+    }
+
+    /**
+     * Get an expression of the set.
+     *
+     * @param id id of the expression.
+     * @return the expression.
+     */
+    public RegularExpression getPattern(int id) {
+        return patterns[id];
+    }
+
+    /**
+     * Get the number of states of the DFA.
+     *
+     * @return number of states.
+     */
+    public int getStateCount() {
+        return acceptStart.length - 1;
+    }
+
+    /**
+     * Give a string representation of the set.
+     *
+     * @return a string.
+     */
+    @Override
+    public String toString() {
+        return "PatternSet: " + patterns.length + " expressions, "
+                + getStateCount() + " states, " + matcher.getColumns() + " columns";
+    }
+}
@@ -0,0 +1,24 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kleenstheorem;
+
+/**
+ * This interface represents a receiver of the measurements of the
+ * construction stages. Listeners are registered with
+ * PipelineMetrics.addListener and called on the thread that ran the stage,
+ * after it is done, so they should be quick and thread-safe.
+ *
+ * @author ThienDinh
+ */
+public interface PipelineListener {
+
+    /**
+     * Receive the measurements of a stage.
+     *
+     * @param stage the measurements.
+     */
+    void stageCompleted(PipelineStage stage);
+}
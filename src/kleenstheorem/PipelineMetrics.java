@@ -0,0 +1,215 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kleenstheorem;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * This class represents the instrumentation of the construction stages:
+ * RegularExpression.createLambdaNFA, LambdaNFA.createNFA, NFA.createDFA and
+ * RegNFA.createRegularExpression. Every run of a stage is given to the
+ * registered PipelineListeners and committed as a JDK Flight Recorder event
+ * named kleenstheorem.PipelineStage, so a recording shows which patterns
+ * are expensive to build.
+ *
+ * The event type is made at run time with jdk.jfr.EventFactory, through
+ * reflection since the code is built for Java 7; on a JVM without JFR only
+ * the listeners are called. When there is no listener and the event is not
+ * enabled in a recording, a stage measures nothing.
+ *
+ * @author ThienDinh
+ */
+public final class PipelineMetrics {
+
+    // Registered listeners.
+    private static final CopyOnWriteArrayList<PipelineListener> listeners
+            = new CopyOnWriteArrayList<>();
+
+    // The JFR event factory and the methods used on it and on its events;
+    // null if JFR cannot be used.
+    private static final Object eventFactory;
+    private static final Object eventType;
+    private static final Method isEnabled;
+    private static final Method newEvent;
+    private static final Method begin;
+    private static final Method end;
+    private static final Method shouldCommit;
+    private static final Method set;
+    private static final Method commit;
+
+    static {
+        Object factory = null;
+        Object type = null;
+        Method[] methods = new Method[7];
+        try {
+            Class<?> annotationClass = Class.forName("jdk.jfr.AnnotationElement");
+            Class<?> valueClass = Class.forName("jdk.jfr.ValueDescriptor");
+            Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+            Class<?> eventClass = Class.forName("jdk.jfr.Event");
+            Constructor<?> annotation = annotationClass.getConstructor(Class.class, Object.class);
+            Constructor<?> value = valueClass.getConstructor(Class.class, String.class);
+            Constructor<?> annotatedValue = valueClass.getConstructor(
+                    Class.class, String.class, List.class);
+            List<Object> annotations = new ArrayList<>();
+            annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Name"),
+                    "kleenstheorem.PipelineStage"));
+            annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Label"),
+                    "Automaton Construction Stage"));
+            annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Category"),
+                    new String[]{"Kleene's Theorem"}));
+            annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Description"),
+                    "One run of a stage of the conversion of a regular expression"));
+            List<Object> fields = new ArrayList<>();
+            // In the order of the indexes given to set.
+            fields.add(value.newInstance(String.class, "stage"));
+            fields.add(value.newInstance(String.class, "pattern"));
+            fields.add(value.newInstance(int.class, "states"));
+            fields.add(value.newInstance(int.class, "transitions"));
+            fields.add(value.newInstance(int.class, "peakSubsetSize"));
+            fields.add(annotatedValue.newInstance(long.class, "retainedBytes",
+                    Collections.singletonList(annotation.newInstance(
+                            Class.forName("jdk.jfr.DataAmount"), "BYTES"))));
+            factory = factoryClass.getMethod("create", List.class, List.class)
+                    .invoke(null, annotations, fields);
+            type = factoryClass.getMethod("getEventType").invoke(factory);
+            methods[0] = type.getClass().getMethod("isEnabled");
+            methods[1] = factoryClass.getMethod("newEvent");
+            methods[2] = eventClass.getMethod("begin");
+            methods[3] = eventClass.getMethod("end");
+            methods[4] = eventClass.getMethod("shouldCommit");
+            methods[5] = eventClass.getMethod("set", int.class, Object.class);
+            methods[6] = eventClass.getMethod("commit");
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException ex) {
+            // No JFR on this JVM.
+            factory = null;
+            type = null;
+            Arrays.fill(methods, null);
+        }
+        eventFactory = factory;
+        eventType = type;
+        isEnabled = methods[0];
+        newEvent = methods[1];
+        begin = methods[2];
+        end = methods[3];
+        shouldCommit = methods[4];
+        set = methods[5];
+        commit = methods[6];
+    }
+
+    private PipelineMetrics() {
+    }
+
+    /**
+     * Register a listener of every stage.
+     *
+     * @param listener a listener.
+     */
+    public static void addListener(PipelineListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Remove a listener.
+     *
+     * @param listener a registered listener.
+     */
+    public static void removeListener(PipelineListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Check if the JFR event can be committed on this JVM.
+     *
+     * @return true if it can; otherwise, false.
+     */
+    public static boolean isFlightRecorderAvailable() {
+        return eventFactory != null;
+    }
+
+    /**
+     * Start measuring a stage.
+     *
+     * @return a recording to end when the stage is done, or null if nobody
+     * would see it.
+     */
+    static Recording begin() {
+        Object event = null;
+        if (eventFactory != null) {
+            try {
+                if ((Boolean) isEnabled.invoke(eventType)) {
+                    event = newEvent.invoke(eventFactory);
+                    begin.invoke(event);
+                }
+            } catch (ReflectiveOperationException ex) {
+                event = null;
+            }
+        }
+        if (event == null && listeners.isEmpty()) {
+            return null;
+        }
+        return new Recording(event);
+    }
+
+    /**
+     * This class represents the measuring of one run of a stage.
+     */
+    static final class Recording {
+
+        // When the stage started.
+        private final long startNanos = System.nanoTime();
+
+        // The JFR event, begun, or null.
+        private final Object event;
+
+        private Recording(Object event) {
+            this.event = event;
+        }
+
+        /**
+         * End the measuring of a stage, committing its event and calling
+         * the listeners.
+         *
+         * @param stage check with PipelineStage.LAMBDA_NFA, NFA, DFA and
+         * REGULAR_EXPRESSION.
+         * @param pattern the pattern, or null if it is not known.
+         * @param stateCount number of states.
+         * @param transitionCount number of transitions.
+         * @param peakSubsetSize most NFA states in one DFA state.
+         * @param retainedBytes estimated size of the result.
+         */
+        void end(int stage, String pattern, int stateCount, int transitionCount,
+                int peakSubsetSize, long retainedBytes) {
+            PipelineStage measured = new PipelineStage(stage, pattern,
+                    System.nanoTime() - startNanos, stateCount, transitionCount,
+                    peakSubsetSize, retainedBytes);
+            if (event != null) {
+                try {
+                    end.invoke(event);
+                    if ((Boolean) shouldCommit.invoke(event)) {
+                        set.invoke(event, 0, PipelineStage.getName(stage));
+                        set.invoke(event, 1, measured.getPattern());
+                        set.invoke(event, 2, stateCount);
+                        set.invoke(event, 3, transitionCount);
+                        set.invoke(event, 4, peakSubsetSize);
+                        set.invoke(event, 5, retainedBytes);
+                        commit.invoke(event);
+                    }
+                } catch (ReflectiveOperationException ex) {
+                    // The event is lost; the listeners still get the stage.
+                }
+            }
+            for (PipelineListener listener : listeners) {
+                listener.stageCompleted(measured);
+            }
+        }
+    }
+}
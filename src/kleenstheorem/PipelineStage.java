@@ -0,0 +1,167 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kleenstheorem;
+
+/**
+ * This class represents the measurements of one run of a construction
+ * stage: the pattern it worked on, how long it took, and the size of what
+ * it made. A stage is immutable.
+ *
+ * @author ThienDinh
+ */
+public final class PipelineStage {
+
+    // Stages.
+    // RegularExpression.createLambdaNFA.
+    public static final int LAMBDA_NFA = 0;
+    // LambdaNFA.createNFA.
+    public static final int NFA = 1;
+    // NFA.createDFA.
+    public static final int DFA = 2;
+    // RegNFA.createRegularExpression.
+    public static final int REGULAR_EXPRESSION = 3;
+
+    // Number of stages.
+    static final int STAGE_COUNT = 4;
+
+    // Names of the stages, by stage.
+    private static final String[] NAMES = {"createLambdaNFA", "createNFA",
+        "createDFA", "createRegularExpression"};
+
+    // Which stage ran.
+    private final int stage;
+
+    // The pattern, or "" if it is not known.
+    private final String pattern;
+
+    // Time taken.
+    private final long durationNanos;
+
+    // Size of the machine made, or of the machine read by
+    // createRegularExpression.
+    private final int stateCount;
+    private final int transitionCount;
+
+    // Most NFA states in one DFA state, 0 for stages other than createDFA.
+    private final int peakSubsetSize;
+
+    // Estimated size of the result.
+    private final long retainedBytes;
+
+    /**
+     * Constructor for a PipelineStage.
+     *
+     * @param stage check with PipelineStage.LAMBDA_NFA, NFA, DFA and
+     * REGULAR_EXPRESSION.
+     * @param pattern the pattern, or null if it is not known.
+     * @param durationNanos time taken.
+     * @param stateCount number of states.
+     * @param transitionCount number of transitions.
+     * @param peakSubsetSize most NFA states in one DFA state.
+     * @param retainedBytes estimated size of the result.
+     */
+    PipelineStage(int stage, String pattern, long durationNanos,
+            int stateCount, int transitionCount, int peakSubsetSize,
+            long retainedBytes) {
+        this.stage = stage;
+        this.pattern = pattern == null ? "" : pattern;
+        this.durationNanos = durationNanos;
+        this.stateCount = stateCount;
+        this.transitionCount = transitionCount;
+        this.peakSubsetSize = peakSubsetSize;
+        this.retainedBytes = retainedBytes;
+    }
+
+    /**
+     * Get the name of a stage.
+     *
+     * @param stage check with PipelineStage.LAMBDA_NFA, NFA, DFA and
+     * REGULAR_EXPRESSION.
+     * @return the name of the method of the stage.
+     */
+    public static String getName(int stage) {
+        return NAMES[stage];
+    }
+
+    /**
+     * Get the stage that ran.
+     *
+     * @return check with PipelineStage.LAMBDA_NFA, NFA, DFA and
+     * REGULAR_EXPRESSION.
+     */
+    public int getStage() {
+        return stage;
+    }
+
+    /**
+     * Get the pattern the stage worked on.
+     *
+     * @return the pattern, or "" if it is not known.
+     */
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Get the time the stage took.
+     *
+     * @return nanoseconds.
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * Get the number of states of the machine made, or of the machine read
+     * by createRegularExpression.
+     *
+     * @return number of states.
+     */
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    /**
+     * Get the number of transitions of the machine made, or of the machine
+     * read by createRegularExpression.
+     *
+     * @return number of transitions.
+     */
+    public int getTransitionCount() {
+        return transitionCount;
+    }
+
+    /**
+     * Get the most NFA states in one state of the DFA made.
+     *
+     * @return number of NFA states, 0 for stages other than createDFA.
+     */
+    public int getPeakSubsetSize() {
+        return peakSubsetSize;
+    }
+
+    /**
+     * Get the estimated size of the result of the stage.
+     *
+     * @return estimated bytes.
+     */
+    public long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    /**
+     * Give a string representation of the stage.
+     *
+     * @return a string.
+     */
+    @Override
+    public String toString() {
+        return NAMES[stage] + " \"" + pattern + "\": " + durationNanos / 1000
+                + " us, " + stateCount + " states, " + transitionCount
+                + " transitions, peak subset " + peakSubsetSize + ", "
+                + retainedBytes + " bytes";
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kleenstheorem;
+
+/**
+ * This class represents a listener that keeps counters and histograms of
+ * the construction stages: for every stage, how many times it ran, the
+ * total and largest of its measurements, and histograms of its durations
+ * and of the number of states it made. Bucket i of a histogram counts the
+ * values from 2^i to 2^(i+1) - 1, bucket 0 also counting 0. A listener can
+ * be shared by threads.
+ *
+ * @author ThienDinh
+ */
+public final class PipelineStatistics implements PipelineListener {
+
+    // Buckets of a histogram.
+    public static final int BUCKETS = 64;
+
+    // Counters, by stage.
+    private final long[] counts = new long[PipelineStage.STAGE_COUNT];
+    private final long[] totalNanos = new long[PipelineStage.STAGE_COUNT];
+    private final long[] totalStates = new long[PipelineStage.STAGE_COUNT];
+    private final long[] totalTransitions = new long[PipelineStage.STAGE_COUNT];
+    private final long[] maxNanos = new long[PipelineStage.STAGE_COUNT];
+    private final int[] maxPeakSubsetSize = new int[PipelineStage.STAGE_COUNT];
+    private final long[] maxRetainedBytes = new long[PipelineStage.STAGE_COUNT];
+
+    // Histograms of the durations in microseconds and of the states, by
+    // stage.
+    private final long[][] durationHistograms = new long[PipelineStage.STAGE_COUNT][BUCKETS];
+    private final long[][] stateHistograms = new long[PipelineStage.STAGE_COUNT][BUCKETS];
+
+    /**
+     * Count a stage.
+     *
+     * @param stage the measurements.
+     */
+    @Override
+    public synchronized void stageCompleted(PipelineStage stage) {
+        int s = stage.getStage();
+        counts[s]++;
+        totalNanos[s] += stage.getDurationNanos();
+        totalStates[s] += stage.getStateCount();
+        totalTransitions[s] += stage.getTransitionCount();
+        maxNanos[s] = Math.max(maxNanos[s], stage.getDurationNanos());
+        maxPeakSubsetSize[s] = Math.max(maxPeakSubsetSize[s], stage.getPeakSubsetSize());
+        maxRetainedBytes[s] = Math.max(maxRetainedBytes[s], stage.getRetainedBytes());
+        durationHistograms[s][bucket(stage.getDurationNanos() / 1000)]++;
+        stateHistograms[s][bucket(stage.getStateCount())]++;
+    }
+
+    /**
+     * Get the bucket of a value.
+     *
+     * @param value a value, not negative.
+     * @return floor(log2(value)), 0 for 0.
+     */
+    private static int bucket(long value) {
+        return value <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * Get the number of runs of a stage.
+     *
+     * @param stage check with PipelineStage.LAMBDA_NFA, NFA, DFA and
+     * REGULAR_EXPRESSION.
+     * @return number of runs.
+     */
+    public synchronized long getCount(int stage) {
+        return counts[stage];
+    }
+
+    /**
+     * Get the total time of the runs of a stage.
+     *
+     * @param stage a stage.
+     * @return nanoseconds.
+     */
+    public synchronized long getTotalNanos(int stage) {
+        return totalNanos[stage];
+    }
+
+    /**
+     * Get the longest run of a stage.
+     *
+     * @param stage a stage.
+     * @return nanoseconds.
+     */
+    public synchronized long getMaxNanos(int stage) {
+        return maxNanos[stage];
+    }
+
+    /**
+     * Get the total number of states made by a stage.
+     *
+     * @param stage a stage.
+     * @return number of states.
+     */
+    public synchronized long getTotalStates(int stage) {
+        return totalStates[stage];
+    }
+
+    /**
+     * Get the total number of transitions made by a stage.
+     *
+     * @param stage a stage.
+     * @return number of transitions.
+     */
+    public synchronized long getTotalTransitions(int stage) {
+        return totalTransitions[stage];
+    }
+
+    /**
+     * Get the largest peak subset size of a stage.
+     *
+     * @param stage a stage.
+     * @return number of NFA states.
+     */
+    public synchronized int getMaxPeakSubsetSize(int stage) {
+        return maxPeakSubsetSize[stage];
+    }
+
+    /**
+     * Get the largest estimated size of a result of a stage.
+     *
+     * @param stage a stage.
+     * @return estimated bytes.
+     */
+    public synchronized long getMaxRetainedBytes(int stage) {
+        return maxRetainedBytes[stage];
+    }
+
+    /**
+     * Get the histogram of the durations of a stage.
+     *
+     * @param stage a stage.
+     * @return a copy of the histogram, in microseconds.
+     */
+    public synchronized long[] getDurationHistogram(int stage) {
+        return durationHistograms[stage].clone();
+    }
+
+    /**
+     * Get the histogram of the number of states made by a stage.
+     *
+     * @param stage a stage.
+     * @return a copy of the histogram.
+     */
+    public synchronized long[] getStateHistogram(int stage) {
+        return stateHistograms[stage].clone();
+    }
+
+    /**
+     * Give a string representation of the counters.
+     *
+     * @return a string, one line per stage that ran.
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("PipelineStatistics:");
+        for (int s = 0; s < PipelineStage.STAGE_COUNT; s++) {
+            if (counts[s] == 0) {
+                continue;
+            }
+            sb.append('\n').append(PipelineStage.getName(s)).append(": ")
+                    .append(counts[s]).append(" runs, ")
+                    .append(totalNanos[s] / 1000).append(" us, ")
+                    .append(totalStates[s]).append(" states, ")
+                    .append(totalTransitions[s]).append(" transitions");
+        }
+        return sb.toString();
+    }
+}
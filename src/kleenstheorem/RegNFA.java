@@ -6,8 +6,10 @@
 package kleenstheorem;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.TreeSet;
-import java.util.Iterator;
 
 /**
  * This class represents a regular expression NFA.
@@ -16,6 +18,17 @@ import java.util.Iterator;
  */
 public class RegNFA extends FiniteAutomaton {
 
+    // Elimination orders of createRegularExpression(int).
+    // In the order of state descriptions.
+    public static final int ORDER_DESCRIPTION = 0;
+    // Fewest in-degree times out-degree first, measured once.
+    public static final int ORDER_MIN_DEGREE = 1;
+    // Least growth of the labels first, measured once.
+    public static final int ORDER_MIN_WEIGHT = 2;
+    // Least growth of the labels first, measured again after every
+    // elimination.
+    public static final int ORDER_DYNAMIC = 3;
+
     /**
      * Constructor for a Regular Expression NFA.
      *
@@ -32,13 +45,13 @@ public class RegNFA extends FiniteAutomaton {
     }
 
     /**
-     * Copy constructor for Regular Expression NFA.
+     * Copy constructor for Regular Expression NFA. Any other finite
+     * automaton can also be copied into a Regular Expression NFA.
      *
-     * @param otherRegNFA other Regular Expression NFA.
+     * @param otherFA other finite automaton.
      */
-    public RegNFA(RegNFA otherRegNFA) {
-        super(otherRegNFA.stateSet, otherRegNFA.initialState,
-                otherRegNFA.finalStateSet, otherRegNFA.transitionList);
+    public RegNFA(FiniteAutomaton otherFA) {
+        super(otherFA);
         reconfigureNFA();
     }
 
@@ -47,172 +60,181 @@ public class RegNFA extends FiniteAutomaton {
      */
     private void reconfigureNFA() {
         // If there is a state go to the initial state.
-        TreeSet<State> initInStates = getStatesGoIn(initialState);
+        BitSet initInStates = getStatesGoIn(initialState);
         // If there are states that go out from the final state.
-        TreeSet<State> finalOutStates = new TreeSet<>();
-        Iterator<State> finSetIterator = finalStateSet.iterator();
-        while (finSetIterator.hasNext()) {
-            finalOutStates.addAll(getStatesGoOut(finSetIterator.next()));
+        BitSet finalOutStates = new BitSet();
+        for (int state = finalStateSet.nextSetBit(0); state >= 0;
+                state = finalStateSet.nextSetBit(state + 1)) {
+            finalOutStates.or(getStatesGoOut(state));
         }
         // Create new initial state and lambda move if necessary.
         if (!initInStates.isEmpty()) {
-            State newInitialState = new State(" Init");
-            transitionList.add(new Transition(newInitialState, "", initialState));
+            int newInitialState = addState(" Init");
+            addTransition(newInitialState, "", initialState);
             initialState = newInitialState;
-            this.stateSet.add(newInitialState);
         }
         // Create new final state and lambda move if necessary.
         if (!finalOutStates.isEmpty()) {
-            finSetIterator = finalStateSet.iterator();
-            State newFinalState = new State("~Fin");
-            while (finSetIterator.hasNext()) {
-                transitionList.add(new Transition(finSetIterator.next(), "", newFinalState));
+            int newFinalState = addState("~Fin");
+            for (int state = finalStateSet.nextSetBit(0); state >= 0;
+                    state = finalStateSet.nextSetBit(state + 1)) {
+                addTransition(state, "", newFinalState);
             }
             finalStateSet.clear();
-            finalStateSet.add(newFinalState);
-            this.stateSet.add(newFinalState);
+            finalStateSet.set(newFinalState);
         }
     }
 
     /**
-     * Perform state elimination.
+     * Get the expression by eliminating the states in the NFA. The states
+     * are eliminated in the order of their descriptions.
      *
-     * @param eliminatedState a state to be eliminated.
-     * @return a new NFA with a state eliminated or null if trying to eliminate
-     * initial or final state.
+     * @return a regular expression.
      */
-    private RegNFA eliminateState(State eliminatedState) {
-        if (this.finalStateSet.contains(eliminatedState)
-                || this.initialState.equals(eliminatedState)) {
-            return null;
+    public RegularExpression createRegularExpression() {
+        // Get the states that should be removed.
+        BitSet removingSet = (BitSet) stateSet.clone();
+        removingSet.clear(initialState);
+        removingSet.andNot(finalStateSet);
+        Integer[] removingStates = new Integer[removingSet.cardinality()];
+        int count = 0;
+        for (int state = removingSet.nextSetBit(0); state >= 0;
+                state = removingSet.nextSetBit(state + 1)) {
+            removingStates[count++] = state;
         }
-        // Make a copy of the current NFA.
-        RegNFA eliminatedRegNFA = new RegNFA(this);
-        TreeSet<State> inStates = getStatesGoIn(eliminatedState);
-        TreeSet<State> outStates = getStatesGoOut(eliminatedState);
-
-        String loop = "";
-
-        // Check for loop.
-        // We just need to check for one list because the loop is in both list. 
-        // Notice that there is only one loop.
-        for (State inState: inStates) {
-            // If eliminated state equals to going in state
-            // then it's a loop.
-            if (eliminatedState.equals(inState)) {
-                loop += "(" + lookUpTransition(inState, inState).getTransition() + ")*";
+        Arrays.sort(removingStates, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer state1, Integer state2) {
+                return getDescription(state1).compareTo(getDescription(state2));
             }
-        }
-        
-        
-        int inStates_size = inStates.size();
-        int outStates_size = outStates.size();
+        });
+        return createRegularExpression(removingStates);
+    }
 
-        // Create a list of new transitions
-        TreeSet<Transition> newTransitions = new TreeSet<>();
-        for (State newInState: inStates) {
-            for (State newOutState: outStates) {
-                // Make new transitions excluding loop at eliminated state.
-                if (!newInState.equals(eliminatedState)
-                        && !newOutState.equals(eliminatedState)) {
-                    boolean hasEmptyString = false;
-                    String leftExpr = lookUpTransition(newInState, eliminatedState).getTransition();
-                    if (leftExpr.contains("+")) {
-                        leftExpr = "(" + leftExpr + ")";
-                    }
-                    String rightExpr = lookUpTransition(eliminatedState, newOutState).getTransition();
-                    if (rightExpr.contains("+")) {
-                        rightExpr = "(" + rightExpr + ")";
-                    }
-                    String newRegExpr
-                            = leftExpr
-                            + loop
-                            + rightExpr;
-                    Transition existingTrans = lookUpTransition(newInState, newOutState);
-                    // If there exists a transition from newInState and newOutState,
-                    // and that transition is not lambda.
-                    if (existingTrans != null && !existingTrans.getTransition().equals("")) {
-                        newRegExpr = existingTrans.getTransition() + " + " + newRegExpr;
+    /**
+     * Get the expression by eliminating the states in the NFA in the order
+     * given by a strategy. Ties are broken by the order of descriptions.
+     * The length of the result, given by RegularExpression.getLength(),
+     * tells how well an order did.
+     *
+     * @param order check with RegNFA.ORDER_*
+     * @return a regular expression.
+     */
+    public RegularExpression createRegularExpression(int order) {
+        if (order == ORDER_DESCRIPTION) {
+            return createRegularExpression();
+        }
+        // Get the states that should be removed.
+        BitSet removingSet = (BitSet) stateSet.clone();
+        removingSet.clear(initialState);
+        removingSet.andNot(finalStateSet);
+        PipelineMetrics.Recording recording = PipelineMetrics.begin();
+        StateEliminator eliminator = new StateEliminator(this);
+        if (order == ORDER_DYNAMIC) {
+            while (!removingSet.isEmpty()) {
+                int best = -1;
+                long bestWeight = 0;
+                for (int state = removingSet.nextSetBit(0); state >= 0;
+                        state = removingSet.nextSetBit(state + 1)) {
+                    long weight = eliminator.getWeight(state);
+                    if (best < 0 || weight < bestWeight || (weight == bestWeight
+                            && getDescription(state).compareTo(getDescription(best)) < 0)) {
+                        best = state;
+                        bestWeight = weight;
                     }
-                    //newRegExpr = "(" + newRegExpr + ")";
-                    newTransitions.add(new Transition(newInState,
-                            newRegExpr, newOutState));
                 }
+                eliminator.eliminate(best);
+                removingSet.clear(best);
             }
+            return readExpression(eliminator, recording);
         }
-        //System.out.println("New transitions: " + newTransitions);
-
-        // Remove old transitions from the new NFA.
-        Iterator<Transition> iterator = eliminatedRegNFA.transitionList.iterator();
-        while(iterator.hasNext()){
-            Transition relTrans = iterator.next();
-            if (relTrans.getFromState().equals(eliminatedState)
-                    || relTrans.getToState().equals(eliminatedState)) {
-                iterator.remove();
-            }
+        Integer[] removingStates = new Integer[removingSet.cardinality()];
+        final long[] keys = new long[stateIdCount];
+        int count = 0;
+        for (int state = removingSet.nextSetBit(0); state >= 0;
+                state = removingSet.nextSetBit(state + 1)) {
+            removingStates[count++] = state;
+            keys[state] = order == ORDER_MIN_DEGREE
+                    ? eliminator.getDegreeProduct(state)
+                    : eliminator.getWeight(state);
         }
-
-        // Add and merge new transitions to the new NFA.
-        for (Transition newTrans: newTransitions) {
-            // Replace the old transition by the new one.
-            Iterator<Transition> TransIterator = eliminatedRegNFA.transitionList.iterator();
-            while(TransIterator.hasNext()){
-                Transition oldTrans = TransIterator.next();
-                if (oldTrans.getFromState().equals(newTrans.getFromState())
-                        && oldTrans.getToState().equals(newTrans.getToState())) {
-                    TransIterator.remove();
-                    // There is only one transition from a state to another state.
-                    break;
+        Arrays.sort(removingStates, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer state1, Integer state2) {
+                if (keys[state1] != keys[state2]) {
+                    return keys[state1] < keys[state2] ? -1 : 1;
                 }
+                return getDescription(state1).compareTo(getDescription(state2));
             }
-            eliminatedRegNFA.transitionList.add(newTrans);
+        });
+        for (int state : removingStates) {
+            eliminator.eliminate(state);
         }
-
-        // Update state set
-        eliminatedRegNFA.stateSet.remove(eliminatedState);
-        return eliminatedRegNFA;
+        return readExpression(eliminator, recording);
     }
 
     /**
      * Get the expression by eliminating the states in the NFA. The order of
      * eliminating states are arranged according to the array list.
      *
+     * @param removingOrder the order of removing states.
      * @return a regular expression.
      */
-    public RegularExpression createRegularExpression() {
-        RegNFA originalRegNFA = new RegNFA(this);
+    public RegularExpression createRegularExpression(ArrayList<State> removingOrder) {
         // Get the states that should be removed.
-        TreeSet<State> removingStates = originalRegNFA.stateSet;
-        removingStates.remove(originalRegNFA.initialState);
-        removingStates.removeAll(originalRegNFA.finalStateSet);
-        // Remove them all        
-        Iterator<State> iterator = removingStates.iterator();
-        while(iterator.hasNext()) {
-            originalRegNFA = originalRegNFA.eliminateState(iterator.next());
+        ArrayList<Integer> removingStates = new ArrayList<>();
+        for (State state : removingOrder) {
+            int id = lookUpStateId(state.getDescription());
+            if (id >= 0 && id != initialState && !finalStateSet.get(id)) {
+                removingStates.add(id);
+            }
         }
-        return new RegularExpression(originalRegNFA.lookUpTransition(initialState, finalStateSet.first()).getTransition());
+        return createRegularExpression(
+                removingStates.toArray(new Integer[removingStates.size()]));
     }
 
     /**
-     * Get the expression by eliminating the states in the NFA. The order of
-     * eliminating states are arranged according to the array list.
+     * Eliminate the states in the given order and read the expression of
+     * the transitions left between the initial and the final states.
      *
-     * @param removingOrder the order of removing states.
+     * @param removingStates the order of removing states.
      * @return a regular expression.
      */
-    public RegularExpression createRegularExpression(ArrayList<State> removingOrder) {
-        RegNFA originalRegNFA = new RegNFA(this);
-        // Get the states that should be removed.
-        ArrayList<State> removingStates = removingOrder;
-        removingStates.remove(originalRegNFA.initialState);
-        removingStates.removeAll(originalRegNFA.finalStateSet);
+    private RegularExpression createRegularExpression(Integer[] removingStates) {
+        PipelineMetrics.Recording recording = PipelineMetrics.begin();
+        StateEliminator eliminator = new StateEliminator(this);
         // Remove them all
-        int size = removingStates.size();
-        Iterator<State> iterator = removingStates.iterator();
-        while(iterator.hasNext()) {
-            originalRegNFA = originalRegNFA.eliminateState(iterator.next());
+        for (int state : removingStates) {
+            eliminator.eliminate(state);
+        }
+        return readExpression(eliminator, recording);
+    }
+
+    /**
+     * Read the expression left after elimination: the union of the labels
+     * from the initial state to the final states, with lambda if the
+     * initial state is final.
+     *
+     * @param eliminator the elimination of all other states.
+     * @param recording the recording of the stage, or null.
+     * @return a regular expression.
+     * @throws IllegalStateException if no final state can be reached.
+     */
+    private RegularExpression readExpression(StateEliminator eliminator,
+            PipelineMetrics.Recording recording) {
+        String expr = eliminator.getExpression(initialState, finalStateSet);
+        if (expr == null) {
+            throw new IllegalStateException("No final state can be reached");
+        }
+        RegularExpression result = new RegularExpression(expr);
+        if (recording != null) {
+            // The string and about one syntax node of 32 bytes per
+            // character.
+            recording.end(PipelineStage.REGULAR_EXPRESSION, pattern,
+                    stateSet.cardinality(), transitionCount, 0,
+                    40 + 33L * expr.length());
         }
-        return new RegularExpression(originalRegNFA.lookUpTransition(initialState, finalStateSet.first()).getTransition());
+        return result;
     }
 
 }
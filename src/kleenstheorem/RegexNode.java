@@ -0,0 +1,112 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kleenstheorem;
+
+/**
+ * This class represents a node of the syntax tree of a regular expression.
+ * A node is a Kleen star, a union, a concatenation, an atom or the empty
+ * expression, typed by the RegularExpression.RE_* codes. Nodes never change
+ * once they are built, so a tree can be shared and walked any number of
+ * times.
+ *
+ * @author ThienDinh
+ */
+public final class RegexNode {
+
+    // Check with RegularExpression.RE_*
+    private final int type;
+
+    // Expression under the star, or first expression of a union or a
+    // concatenation.
+    private final RegexNode first;
+
+    // Second expression of a union or a concatenation.
+    private final RegexNode second;
+
+    // Letter of an atom.
+    private final char symbol;
+
+    // Range of the expression in the pattern, end excluded.
+    private final int start;
+    private final int end;
+
+    /**
+     * Constructor for a RegexNode.
+     *
+     * @param type check with RegularExpression.RE_*
+     * @param first the first sub expression, or null.
+     * @param second the second sub expression, or null.
+     * @param symbol the letter of an atom.
+     * @param start index of the first character in the pattern.
+     * @param end index after the last character in the pattern.
+     */
+    RegexNode(int type, RegexNode first, RegexNode second, char symbol,
+            int start, int end) {
+        this.type = type;
+        this.first = first;
+        this.second = second;
+        this.symbol = symbol;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Get the integer code of this node.
+     *
+     * @return Check with RegularExpression.RE_*
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Get the expression under the star, or the first expression of a union
+     * or a concatenation.
+     *
+     * @return a node, or null for an atom or the empty expression.
+     */
+    public RegexNode getFirst() {
+        return first;
+    }
+
+    /**
+     * Get the second expression of a union or a concatenation.
+     *
+     * @return a node, or null for other nodes.
+     */
+    public RegexNode getSecond() {
+        return second;
+    }
+
+    /**
+     * Get the letter of an atom.
+     *
+     * @return a letter.
+     */
+    public char getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * Get the index of the first character of this expression in the
+     * pattern.
+     *
+     * @return an index.
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Get the index after the last character of this expression in the
+     * pattern.
+     *
+     * @return an index.
+     */
+    public int getEnd() {
+        return end;
+    }
+}
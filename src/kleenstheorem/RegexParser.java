@@ -0,0 +1,198 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kleenstheorem;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * This class represents a parser of regular expressions. It reads the
+ * pattern once from left to right and keeps one frame per open parenthesis
+ * on an explicit stack, so it takes linear time and does not recurse.
+ *
+ * The tree has the shape the expression was always read with: a union is
+ * split at its first top level '+' and a concatenation after its first
+ * factor, so both lean to the right. A pair of parentheses only groups, it
+ * does not make a node. An empty alternative or group is the empty
+ * expression.
+ *
+ * @author ThienDinh
+ */
+final class RegexParser {
+
+    /**
+     * This class represents the expression read so far inside one pair of
+     * parentheses: the finished alternatives of a union and the factors of
+     * the alternative being read. Each alternative and factor also keeps the
+     * range it covers in the pattern, its parentheses included.
+     */
+    private static final class Frame {
+
+        // Index of the open parenthesis, -1 for the whole pattern.
+        private final int open;
+
+        // Finished alternatives.
+        private RegexNode[] alternatives = new RegexNode[4];
+        private int[] alternativeStart = new int[4];
+        private int[] alternativeEnd = new int[4];
+        private int alternativeCount;
+
+        // Factors of the alternative being read.
+        private RegexNode[] factors = new RegexNode[4];
+        private int[] factorStart = new int[4];
+        private int[] factorEnd = new int[4];
+        private int factorCount;
+
+        // Index where the alternative being read starts.
+        private int termStart;
+
+        private Frame(int open) {
+            this.open = open;
+            this.termStart = open + 1;
+        }
+
+        /**
+         * Add a factor to the alternative being read.
+         *
+         * @param factor a node.
+         * @param start index where the factor starts.
+         * @param end index after the factor.
+         */
+        private void addFactor(RegexNode factor, int start, int end) {
+            if (factorCount == factors.length) {
+                int capacity = factorCount * 2;
+                factors = Arrays.copyOf(factors, capacity);
+                factorStart = Arrays.copyOf(factorStart, capacity);
+                factorEnd = Arrays.copyOf(factorEnd, capacity);
+            }
+            factors[factorCount] = factor;
+            factorStart[factorCount] = start;
+            factorEnd[factorCount] = end;
+            factorCount++;
+        }
+
+        /**
+         * Put a Kleen star on the last factor.
+         *
+         * @param position index of the star.
+         */
+        private void starLastFactor(int position) {
+            if (factorCount == 0) {
+                throw new IllegalArgumentException(
+                        "Nothing to repeat at index " + position);
+            }
+            int last = factorCount - 1;
+            factors[last] = new RegexNode(RegularExpression.RE_KLEENSTAR,
+                    factors[last], null, '\0', factorStart[last], position + 1);
+            factorEnd[last] = position + 1;
+        }
+
+        /**
+         * Finish the alternative being read. Its factors are concatenated
+         * from the right.
+         *
+         * @param position index after the alternative.
+         */
+        private void endAlternative(int position) {
+            RegexNode term;
+            if (factorCount == 0) {
+                term = new RegexNode(RegularExpression.RE_EMPTY, null, null,
+                        '\0', termStart, position);
+            } else {
+                term = factors[factorCount - 1];
+                int end = factorEnd[factorCount - 1];
+                for (int i = factorCount - 2; i >= 0; i--) {
+                    term = new RegexNode(RegularExpression.RE_CONCATENATION,
+                            factors[i], term, '\0', factorStart[i], end);
+                }
+            }
+            if (alternativeCount == alternatives.length) {
+                int capacity = alternativeCount * 2;
+                alternatives = Arrays.copyOf(alternatives, capacity);
+                alternativeStart = Arrays.copyOf(alternativeStart, capacity);
+                alternativeEnd = Arrays.copyOf(alternativeEnd, capacity);
+            }
+            alternatives[alternativeCount] = term;
+            alternativeStart[alternativeCount] = termStart;
+            alternativeEnd[alternativeCount] = position;
+            alternativeCount++;
+            Arrays.fill(factors, 0, factorCount, null);
+            factorCount = 0;
+            termStart = position + 1;
+        }
+
+        /**
+         * Finish the expression of this frame. Its alternatives are united
+         * from the right.
+         *
+         * @param position index after the expression.
+         * @return the expression.
+         */
+        private RegexNode finish(int position) {
+            endAlternative(position);
+            RegexNode expr = alternatives[alternativeCount - 1];
+            int end = alternativeEnd[alternativeCount - 1];
+            for (int i = alternativeCount - 2; i >= 0; i--) {
+                expr = new RegexNode(RegularExpression.RE_UNION,
+                        alternatives[i], expr, '\0', alternativeStart[i], end);
+            }
+            return expr;
+        }
+    }
+
+    private RegexParser() {
+    }
+
+    /**
+     * Parse a regular expression. Positions in the tree are indexes into
+     * the given pattern.
+     *
+     * @param pattern a regular expression without spaces.
+     * @return the root of its syntax tree.
+     * @throws IllegalArgumentException if parentheses do not match or a
+     * star has nothing to repeat.
+     */
+    static RegexNode parse(String pattern) {
+        ArrayDeque<Frame> openFrames = new ArrayDeque<>();
+        Frame frame = new Frame(-1);
+        int length = pattern.length();
+        for (int i = 0; i < length; i++) {
+            char ch = pattern.charAt(i);
+            switch (ch) {
+                case '(':
+                    openFrames.push(frame);
+                    frame = new Frame(i);
+                    break;
+                case ')':
+                    if (openFrames.isEmpty()) {
+                        throw new IllegalArgumentException(
+                                "Unmatched ')' at index " + i);
+                    }
+                    // The group is a factor of the enclosing expression.
+                    RegexNode group = frame.finish(i);
+                    int open = frame.open;
+                    frame = openFrames.pop();
+                    frame.addFactor(group, open, i + 1);
+                    break;
+                case '+':
+                    frame.endAlternative(i);
+                    break;
+                case '*':
+                    frame.starLastFactor(i);
+                    break;
+                default:
+                    frame.addFactor(new RegexNode(RegularExpression.RE_ATOM,
+                            null, null, ch, i, i + 1), i, i + 1);
+                    break;
+            }
+        }
+        if (!openFrames.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "Unmatched '(' at index " + frame.open);
+        }
+        return frame.finish(length);
+    }
+}
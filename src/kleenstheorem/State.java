@@ -11,7 +11,7 @@ package kleenstheorem;
  */
 public class State implements Comparable {
 
-    private String description;
+    private final String description;
 
     /**
      * Constructor for a state.
@@ -22,15 +22,6 @@ public class State implements Comparable {
         this.description = description;
     }
 
-    /**
-     * Set the state's description.
-     *
-     * @param descr a string.
-     */
-    public void setDescription(String descr) {
-        this.description = descr;
-    }
-
     /**
      * Get the state's description.
      *
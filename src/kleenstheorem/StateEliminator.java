@@ -0,0 +1,212 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kleenstheorem;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class represents state elimination on a working copy of a regular
+ * expression NFA. Every state keeps a map from the states it goes to to the
+ * label of the transition, and the set of states that go to it, so
+ * eliminating a state only touches its own transitions. Transitions between
+ * the same two states are united when the copy is made.
+ *
+ * Labels are LabelNodes, made once per distinct expression and shared by
+ * every transition that uses them, so a label is not copied each time it is
+ * put into a longer one. The text is only written when the expression is
+ * read.
+ *
+ * @author ThienDinh
+ */
+final class StateEliminator {
+
+    // Label of the transition from a state to another, by beginning state.
+    private final HashMap<Integer, LabelNode>[] outLabels;
+
+    // States that go to a state, other than itself.
+    private final BitSet[] inStates;
+
+    // Labels made so far, each one kept once.
+    private final HashMap<LabelNode, LabelNode> nodes = new HashMap<>();
+
+    // The empty label.
+    private final LabelNode lambda = intern(new LabelNode(
+            LabelNode.LAMBDA, null, null, null, null));
+
+    /**
+     * Constructor for a StateEliminator.
+     *
+     * @param nfa a regular expression NFA.
+     */
+    StateEliminator(RegNFA nfa) {
+        int size = nfa.stateIdCount;
+        outLabels = newLabelMaps(size);
+        inStates = new BitSet[size];
+        for (int state = 0; state < size; state++) {
+            outLabels[state] = new HashMap<>();
+            inStates[state] = new BitSet();
+        }
+        for (int i = 0; i < nfa.transitionCount; i++) {
+            String label = nfa.transLabel[i];
+            addLabel(nfa.transFrom[i], label.equals("") ? lambda
+                    : intern(new LabelNode(LabelNode.TEXT, label, null, null, null)),
+                    nfa.transTo[i]);
+        }
+    }
+
+    /**
+     * Allocate the out-label maps of the states. Java cannot create an
+     * array of a generic type, so a raw array is cast.
+     *
+     * @param size number of states.
+     * @return an array of null maps.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static HashMap<Integer, LabelNode>[] newLabelMaps(int size) {
+        return new HashMap[size];
+    }
+
+    /**
+     * Unite a label with the label of the transition between two states.
+     *
+     * @param fromState id of a state.
+     * @param label a label.
+     * @param toState id of another state.
+     */
+    private void addLabel(int fromState, LabelNode label, int toState) {
+        LabelNode existing = outLabels[fromState].get(toState);
+        outLabels[fromState].put(toState,
+                existing == null ? label : union(existing, label));
+        if (fromState != toState) {
+            inStates[toState].set(fromState);
+        }
+    }
+
+    /**
+     * Eliminate a state. Every state going in it gets a transition to every
+     * state it goes out to, through the loop of the state if there is one.
+     *
+     * @param eliminatedState id of a state.
+     */
+    void eliminate(int eliminatedState) {
+        HashMap<Integer, LabelNode> outs = outLabels[eliminatedState];
+        BitSet ins = inStates[eliminatedState];
+        // Notice that there is only one loop.
+        LabelNode loop = outs.remove(eliminatedState);
+        for (int inState = ins.nextSetBit(0); inState >= 0;
+                inState = ins.nextSetBit(inState + 1)) {
+            LabelNode leftExpr = outLabels[inState].remove(eliminatedState);
+            for (Map.Entry<Integer, LabelNode> out : outs.entrySet()) {
+                addLabel(inState, intern(new LabelNode(LabelNode.PATH, null,
+                        leftExpr, loop, out.getValue())), out.getKey());
+            }
+        }
+        for (Integer outState : outs.keySet()) {
+            inStates[outState].clear(eliminatedState);
+        }
+        outs.clear();
+        ins.clear();
+    }
+
+    /**
+     * Get the expression left from a state to a set of states: the union of
+     * the labels of the transitions to them, with lambda if the state is one
+     * of them. The text is written here, once.
+     *
+     * @param fromState id of a state.
+     * @param toStates ids of other states.
+     * @return a regular expression, or null if there is no transition.
+     */
+    String getExpression(int fromState, BitSet toStates) {
+        LabelNode expr = null;
+        for (int state = toStates.nextSetBit(0); state >= 0;
+                state = toStates.nextSetBit(state + 1)) {
+            LabelNode label = state == fromState
+                    ? lambda : outLabels[fromState].get(state);
+            if (label != null) {
+                expr = expr == null ? label : union(expr, label);
+            }
+        }
+        return expr == null ? null : expr.toString();
+    }
+
+    /**
+     * Get the product of the number of other states going in a state and of
+     * the number of other states it goes out to.
+     *
+     * @param state id of a state.
+     * @return the product of the degrees.
+     */
+    long getDegreeProduct(int state) {
+        long outCount = outLabels[state].size()
+                - (outLabels[state].containsKey(state) ? 1 : 0);
+        return inStates[state].cardinality() * outCount;
+    }
+
+    /**
+     * Estimate how much the labels grow when a state is eliminated: every
+     * label going in is copied once per state going out and the other way
+     * round, the loop is copied once per pair, and the labels of the state
+     * itself go away.
+     *
+     * @param state id of a state.
+     * @return the growth in characters, possibly negative.
+     */
+    long getWeight(int state) {
+        BitSet ins = inStates[state];
+        long inCount = ins.cardinality();
+        long inLength = 0;
+        for (int inState = ins.nextSetBit(0); inState >= 0;
+                inState = ins.nextSetBit(inState + 1)) {
+            inLength += outLabels[inState].get(state).getLength();
+        }
+        long outCount = 0;
+        long outLength = 0;
+        long loopLength = 0;
+        for (Map.Entry<Integer, LabelNode> out : outLabels[state].entrySet()) {
+            if (out.getKey() == state) {
+                loopLength = out.getValue().getLength() + 3;
+            } else {
+                outCount++;
+                outLength += out.getValue().getLength();
+            }
+        }
+        return inLength * outCount + outLength * inCount
+                + loopLength * inCount * outCount
+                - inLength - outLength - loopLength;
+    }
+
+    /**
+     * Unite two labels. The union of lambda with itself is lambda.
+     *
+     * @param label1 a label.
+     * @param label2 another label.
+     * @return the union.
+     */
+    private LabelNode union(LabelNode label1, LabelNode label2) {
+        if (label1 == lambda && label2 == lambda) {
+            return lambda;
+        }
+        return intern(new LabelNode(LabelNode.UNION, null, label1, null, label2));
+    }
+
+    /**
+     * Get the node kept for a label, keeping the given one if it is new.
+     *
+     * @param node a label.
+     * @return the same label, made once.
+     */
+    private LabelNode intern(LabelNode node) {
+        LabelNode existing = nodes.get(node);
+        if (existing != null) {
+            return existing;
+        }
+        nodes.put(node, node);
+        return node;
+    }
+}
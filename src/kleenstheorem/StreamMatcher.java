@@ -0,0 +1,109 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kleenstheorem;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class represents a matching in progress over input that comes in
+ * chunks, such as blocks read from a socket. The current state of the
+ * DFAMatcher is kept between chunks, so a string may be cut anywhere. Each
+ * byte is the character of the same value from 0 to 255.
+ *
+ * A StreamMatcher is not thread safe; make one per input.
+ *
+ * @author ThienDinh
+ */
+public final class StreamMatcher {
+
+    // The compiled DFA.
+    private final DFAMatcher matcher;
+
+    // Row offset of the current state, or -1 if no string going on is
+    // accepted.
+    private int row;
+
+    // Number of bytes given so far.
+    private long count;
+
+    /**
+     * Constructor for a StreamMatcher at the initial state.
+     *
+     * @param matcher a compiled DFA.
+     */
+    StreamMatcher(DFAMatcher matcher) {
+        this.matcher = matcher;
+        this.row = matcher.getInitialRow();
+    }
+
+    /**
+     * Go on with the remaining bytes of a buffer. The position of the
+     * buffer is moved to its limit.
+     *
+     * @param chunk a byte buffer.
+     * @return this StreamMatcher.
+     */
+    public StreamMatcher feed(ByteBuffer chunk) {
+        count += chunk.remaining();
+        row = matcher.run(row, chunk);
+        chunk.position(chunk.limit());
+        return this;
+    }
+
+    /**
+     * Go on with a range of a byte array.
+     *
+     * @param chunk a byte array.
+     * @param offset index of the first byte.
+     * @param length number of bytes.
+     * @return this StreamMatcher.
+     */
+    public StreamMatcher feed(byte[] chunk, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > chunk.length) {
+            throw new IndexOutOfBoundsException("offset " + offset
+                    + ", length " + length + ", array length " + chunk.length);
+        }
+        count += length;
+        row = matcher.run(row, chunk, offset, offset + length);
+        return this;
+    }
+
+    /**
+     * Check if the bytes given so far are accepted.
+     *
+     * @return true if they are; otherwise, false.
+     */
+    public boolean matches() {
+        return matcher.isAccepting(row);
+    }
+
+    /**
+     * Check if no string going on from the bytes given so far is accepted,
+     * so that the rest of the input need not be read.
+     *
+     * @return true if none is; otherwise, false.
+     */
+    public boolean isDead() {
+        return row < 0;
+    }
+
+    /**
+     * Get the number of bytes given so far.
+     *
+     * @return number of bytes.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Go back to the initial state, to match another input.
+     */
+    public void reset() {
+        row = matcher.getInitialRow();
+        count = 0;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kleenstheorem;
+
+import java.util.Arrays;
+
+/**
+ * This class represents a set of NFA states used as a hash key. The set is a
+ * bitset of a fixed number of words, so equal sets have equal arrays. The
+ * array must not change while the key is in a map.
+ *
+ * @author ThienDinh
+ */
+final class Subset {
+
+    private final long[] bits;
+    private final int hash;
+
+    /**
+     * Constructor for a Subset.
+     *
+     * @param bits a bitset of NFA states.
+     */
+    Subset(long[] bits) {
+        this.bits = bits;
+        this.hash = Arrays.hashCode(bits);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Subset
+                && Arrays.equals(bits, ((Subset) other).bits);
+    }
+}
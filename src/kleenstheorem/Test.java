@@ -42,6 +42,25 @@ public class Test {
         DFA dfa = nfa.createDFA();
         System.out.println("DFA from the NFA:\n" + dfa);
 
+        System.out.println("==============================");
+        DFA minDFA = dfa.minimize();
+        System.out.println("Minimal DFA (" + dfa.getStateCount() + " -> "
+                + minDFA.getStateCount() + " states):\n" + minDFA);
+
+        System.out.println("==============================");
+        DFAMatcher matcher = minDFA.compile();
+        LazyDFAMatcher lazyMatcher = nfa.createLazyDFA(1 << 16);
+        AutomatonMatcher simulator = lambNFA.createBitParallelMatcher();
+        AutomatonMatcher generated = minDFA.compileToClass(1024);
+        String[] inputs = {"aab", "abbaab", "aaa", "abb", ""};
+        for (String input : inputs) {
+            System.out.println("\"" + input + "\" accepted: " + matcher.matches(input)
+                    + ", lazy DFA: " + lazyMatcher.matches(input)
+                    + ", lambda NFA: " + simulator.matches(input)
+                    + ", generated: " + generated.matches(input));
+        }
+        System.out.println(lazyMatcher);
+
         System.out.println("==============================");
         // Example page 14-59. Result is in the last sentence of page 14.60
         State[] set = new State[]{
@@ -73,6 +92,40 @@ public class Test {
         removingOrder.add(set[3]);
         removingOrder.add(set[0]);
         System.out.println("Regular expression from the regNFA:\n" + regNFA.createRegularExpression(removingOrder));
+
+        System.out.println("==============================");
+        // Built-in elimination orders, compared by the expression length.
+        String[] orderNames = {"description", "min degree", "min weight", "dynamic"};
+        int[] orders = {RegNFA.ORDER_DESCRIPTION, RegNFA.ORDER_MIN_DEGREE,
+            RegNFA.ORDER_MIN_WEIGHT, RegNFA.ORDER_DYNAMIC};
+        RegNFA dfaRegNFA = minDFA.createRegNFA();
+        for (int i = 0; i < orders.length; i++) {
+            RegularExpression expr = dfaRegNFA.createRegularExpression(orders[i]);
+            System.out.println("Order by " + orderNames[i] + " (length "
+                    + expr.getLength() + "):\n" + expr);
+        }
+
+        System.out.println("==============================");
+        // All the example expressions in one DFA.
+        RegularExpression[] patterns = new RegularExpression[expressions.length];
+        for (int i = 0; i < expressions.length; i++) {
+            patterns[i] = new RegularExpression(expressions[i]);
+        }
+        PatternSet patternSet = new PatternSet(patterns);
+        System.out.println(patternSet);
+        for (String input : inputs) {
+            System.out.println("\"" + input + "\" matched by patterns "
+                    + patternSet.match(input));
+        }
+
+        System.out.println("==============================");
+        // The second compile of a pattern is a cache hit, spaces or not.
+        MatcherCache cache = new MatcherCache(16, 1 << 20);
+        cache.get(expressions[1]);
+        System.out.println("Cached matcher is shared: "
+                + (cache.get(expressions[1].replace("+", " + ")) == cache.get(expressions[1])));
+        System.out.println("Hits: " + cache.getHitCount() + ", misses: "
+                + cache.getMissCount() + ", entries: " + cache.size());
     }
 
 }
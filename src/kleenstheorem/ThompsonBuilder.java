@@ -0,0 +1,262 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kleenstheorem;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.TreeSet;
+
+/**
+ * This class represents the construction of a lambda NFA from the syntax
+ * tree of a regular expression. The tree is walked left to right with an
+ * explicit stack. States are numbered by one counter as they are reached and
+ * transitions are appended to shared arrays, so no sub machine is built,
+ * copied or renumbered and the time is linear in the size of the tree.
+ *
+ * A state that is only known once a sub expression is done, like the state
+ * between the two parts of a concatenation, is first given a pending
+ * number. Pending numbers are replaced when all transitions are added. The
+ * numbering is the one of combining sub machines: the initial state is 0,
+ * the final state is last, and the states of a sub expression follow the
+ * states of the sub expressions on its left.
+ *
+ * @author ThienDinh
+ */
+final class ThompsonBuilder {
+
+    // Kinds of work on the stack.
+    private static final int BUILD = 0;
+    private static final int END_CONCATENATION = 1;
+    private static final int END_KLEENSTAR = 2;
+
+    // Work stack: kind, node, initial and final state of the node, and the
+    // initial and final state of the expression under a star or of the
+    // first part of a concatenation.
+    private int[] workKind = new int[16];
+    private RegexNode[] workNode = new RegexNode[16];
+    private int[] workInitial = new int[16];
+    private int[] workFinal = new int[16];
+    private int[] workInnerInitial = new int[16];
+    private int[] workInnerFinal = new int[16];
+    private int workCount;
+
+    // Transitions, kept as parallel arrays.
+    private int[] transFrom = new int[16];
+    private String[] transLabel = new String[16];
+    private int[] transTo = new int[16];
+    private int transitionCount;
+
+    // Number given to each pending state, -1 until it is known. Pending
+    // state k is written as -(k + 1).
+    private int[] pending = new int[8];
+    private int pendingCount;
+
+    // Next state number.
+    private int stateCount;
+
+    // Letters seen, and the label of each letter.
+    private final BitSet letters = new BitSet();
+    private String[] letterLabels = new String[128];
+
+    private ThompsonBuilder() {
+    }
+
+    /**
+     * Build the lambda NFA of a syntax tree.
+     *
+     * @param root the root of a syntax tree.
+     * @return a lambda NFA.
+     */
+    static LambdaNFA build(RegexNode root) {
+        return new ThompsonBuilder().run(root);
+    }
+
+    /**
+     * Walk the tree and make the machine.
+     *
+     * @param root the root of a syntax tree.
+     * @return a lambda NFA.
+     */
+    private LambdaNFA run(RegexNode root) {
+        stateCount = 1;
+        int rootFinal = newPending();
+        push(BUILD, root, 0, rootFinal, 0, 0);
+        while (workCount > 0) {
+            workCount--;
+            int kind = workKind[workCount];
+            RegexNode node = workNode[workCount];
+            int initial = workInitial[workCount];
+            int fin = workFinal[workCount];
+            int innerInitial = workInnerInitial[workCount];
+            int innerFinal = workInnerFinal[workCount];
+            workNode[workCount] = null;
+            if (kind == END_CONCATENATION) {
+                // The state between the two parts comes after the first.
+                resolve(innerFinal);
+                continue;
+            }
+            if (kind == END_KLEENSTAR) {
+                // The final state of the machine under the star comes after
+                // its other states. Add new lambda moves.
+                innerFinal = resolve(innerFinal);
+                addTransition(innerInitial, "", innerFinal);
+                addTransition(innerFinal, "", innerInitial);
+                addTransition(initial, "", innerInitial);
+                addTransition(innerFinal, "", fin);
+                continue;
+            }
+            switch (node.getType()) {
+                case RegularExpression.RE_ATOM:
+                    addTransition(initial, labelOf(node.getSymbol()), fin);
+                    break;
+                case RegularExpression.RE_EMPTY:
+                    // The empty expression is a single lambda move.
+                    addTransition(initial, "", fin);
+                    break;
+                case RegularExpression.RE_UNION:
+                    // Both machines share the initial state and the final
+                    // state; the first one is built first.
+                    push(BUILD, node.getSecond(), initial, fin, 0, 0);
+                    push(BUILD, node.getFirst(), initial, fin, 0, 0);
+                    break;
+                case RegularExpression.RE_CONCATENATION:
+                    // The final state of machine 1 is the initial state of
+                    // machine 2.
+                    int middle = newPending();
+                    push(BUILD, node.getSecond(), middle, fin, 0, 0);
+                    push(END_CONCATENATION, null, 0, 0, 0, middle);
+                    push(BUILD, node.getFirst(), initial, middle, 0, 0);
+                    break;
+                default:
+                    // A new initial state before the machine under the star
+                    // and a new final state after it.
+                    innerInitial = stateCount++;
+                    innerFinal = newPending();
+                    push(END_KLEENSTAR, null, initial, fin, innerInitial, innerFinal);
+                    push(BUILD, node.getFirst(), innerInitial, innerFinal, 0, 0);
+                    break;
+            }
+        }
+        resolve(rootFinal);
+
+        // Replace pending numbers and make the machine.
+        TreeSet<Character> alphabet = new TreeSet<>();
+        for (int ch = letters.nextSetBit(0); ch >= 0; ch = letters.nextSetBit(ch + 1)) {
+            alphabet.add((char) ch);
+        }
+        BitSet finalStateSet = new BitSet();
+        finalStateSet.set(stateCount - 1);
+        LambdaNFA lamNFA = new LambdaNFA(stateCount, 0, finalStateSet, null, alphabet);
+        for (int i = 0; i < transitionCount; i++) {
+            lamNFA.addTransition(stateOf(transFrom[i]), transLabel[i],
+                    stateOf(transTo[i]));
+        }
+        return lamNFA;
+    }
+
+    /**
+     * Push work on the stack.
+     *
+     * @param kind kind of work.
+     * @param node a node, or null.
+     * @param initial initial state of the node.
+     * @param fin final state of the node.
+     * @param innerInitial initial state of the expression under a star.
+     * @param innerFinal final state of the expression under a star or of
+     * the first part of a concatenation.
+     */
+    private void push(int kind, RegexNode node, int initial, int fin,
+            int innerInitial, int innerFinal) {
+        if (workCount == workKind.length) {
+            int capacity = workKind.length * 2;
+            workKind = Arrays.copyOf(workKind, capacity);
+            workNode = Arrays.copyOf(workNode, capacity);
+            workInitial = Arrays.copyOf(workInitial, capacity);
+            workFinal = Arrays.copyOf(workFinal, capacity);
+            workInnerInitial = Arrays.copyOf(workInnerInitial, capacity);
+            workInnerFinal = Arrays.copyOf(workInnerFinal, capacity);
+        }
+        workKind[workCount] = kind;
+        workNode[workCount] = node;
+        workInitial[workCount] = initial;
+        workFinal[workCount] = fin;
+        workInnerInitial[workCount] = innerInitial;
+        workInnerFinal[workCount] = innerFinal;
+        workCount++;
+    }
+
+    /**
+     * Add a transition.
+     *
+     * @param fromState a state or a pending state.
+     * @param label a letter, or the empty string for a lambda move.
+     * @param toState a state or a pending state.
+     */
+    private void addTransition(int fromState, String label, int toState) {
+        if (transitionCount == transFrom.length) {
+            int capacity = transitionCount * 2;
+            transFrom = Arrays.copyOf(transFrom, capacity);
+            transLabel = Arrays.copyOf(transLabel, capacity);
+            transTo = Arrays.copyOf(transTo, capacity);
+        }
+        transFrom[transitionCount] = fromState;
+        transLabel[transitionCount] = label;
+        transTo[transitionCount] = toState;
+        transitionCount++;
+    }
+
+    /**
+     * Make a pending state.
+     *
+     * @return the pending state.
+     */
+    private int newPending() {
+        if (pendingCount == pending.length) {
+            pending = Arrays.copyOf(pending, pendingCount * 2);
+        }
+        pending[pendingCount] = -1;
+        return -(++pendingCount);
+    }
+
+    /**
+     * Give a pending state the next state number.
+     *
+     * @param state a pending state.
+     * @return its number.
+     */
+    private int resolve(int state) {
+        pending[-state - 1] = stateCount;
+        return stateCount++;
+    }
+
+    /**
+     * Get the number of a state.
+     *
+     * @param state a state or a pending state.
+     * @return its number.
+     */
+    private int stateOf(int state) {
+        return state < 0 ? pending[-state - 1] : state;
+    }
+
+    /**
+     * Get the label of a letter, made once per letter.
+     *
+     * @param ch a letter.
+     * @return the label.
+     */
+    private String labelOf(char ch) {
+        if (ch >= letterLabels.length) {
+            letterLabels = Arrays.copyOf(letterLabels,
+                    Math.max(ch + 1, letterLabels.length * 2));
+        }
+        if (letterLabels[ch] == null) {
+            letterLabels[ch] = String.valueOf(ch);
+            letters.set(ch);
+        }
+        return letterLabels[ch];
+    }
+}
@@ -24,9 +24,9 @@ public class Transition implements Comparable {
      * @param fState an ending state.
      */
     public Transition(State iState, String expr, State fState) {
-        this.fromState = new State(iState.getDescription());
+        this.fromState = iState;
         this.transition = expr;
-        this.toState = new State(fState.getDescription());
+        this.toState = fState;
     }
 
     /**